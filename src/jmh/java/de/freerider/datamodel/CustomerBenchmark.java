@@ -0,0 +1,59 @@
+package de.freerider.datamodel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of Customer setters on new customers, which are not attached to a
+ * repository: setName with a single-string name split by splitName and with first-
+ * and lastName, and addContact with duplicate checks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomerBenchmark {
+    // contacts added to a customer by addContacts
+    private static final String[] CONTACTS = {
+        "eric98@yahoo.com", "(030) 3945-642298", "eric.meyer@freerider.de", "+49 171 2345678", "eric98@yahoo.com"
+    };
+
+    /**
+     * Single-string names with separator and with first names split by white spaces.
+     */
+    @State(Scope.Thread)
+    public static class Names {
+        @Param({ "Meyer, Eric", "Eric Meyer", "Tim Anton Schulz-Mueller" })
+        public String name;
+    }
+
+    @Benchmark
+    public Customer setNameSplit(Names names) {
+        return new Customer().setName(names.name);
+    }
+
+    @Benchmark
+    public Customer setFirstAndLastName() {
+        return new Customer().setName("Eric", "Meyer");
+    }
+
+    @Benchmark
+    public Customer addContacts() {
+        Customer customer = new Customer();
+        for(String contact: CONTACTS) {
+            customer.addContact(contact);
+        }
+        return customer;
+    }
+}
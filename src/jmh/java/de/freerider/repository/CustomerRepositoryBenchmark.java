@@ -0,0 +1,114 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of CustomerRepository operations on repositories of 1K, 1M and 10M
+ * customers, loaded in bulk before measuring. Operations pick random ids, batch
+ * operations work on {@value #BATCH} customers.
+ * <p>
+ * 10M customers take about 4 GB of heap, run with {@code -p size=1000,1000000} on
+ * smaller machines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+public class CustomerRepositoryBenchmark {
+    // customers in batch operations
+    static final int BATCH = 100;
+
+    @Param({ "1000", "1000000", "10000000" })
+    public int size;
+
+    private CustomerRepository customerRepository;
+
+    @Setup
+    public void setup() {
+        customerRepository = new CustomerRepository();
+        List<Customer> customers = new ArrayList<Customer>(size);
+        for(int i = 0; i < size; i++) {
+            customers.add(customer(i));
+        }
+        customerRepository.load(customers);
+    }
+
+    @Benchmark
+    public Object findById() {
+        return customerRepository.findById(randomId());
+    }
+
+    @Benchmark
+    public Object findAllById() {
+        List<Long> ids = new ArrayList<Long>(BATCH);
+        for(int i = 0; i < BATCH; i++) {
+            ids.add(randomId());
+        }
+        return customerRepository.findAllById(ids);
+    }
+
+    @Benchmark
+    public Object findByNamePrefix() {
+        return customerRepository.findByNamePrefix("Last" + randomId() % 1000, 10);
+    }
+
+    @Benchmark
+    public long countByStatus() {
+        return customerRepository.countByStatus(Customer.Status.New);
+    }
+
+    /**
+     * Replace a random customer, the size of the repository stays the same.
+     */
+    @Benchmark
+    public Object save() {
+        return customerRepository.save(customer(randomId()));
+    }
+
+    /**
+     * Insert a batch of new customers with saveAllIfAbsent and delete them again with
+     * deleteAll(Iterable), which keeps the size of the repository constant.
+     */
+    @Benchmark
+    public Object saveAllIfAbsentThenDeleteAll() {
+        long first = size + ThreadLocalRandom.current().nextLong(size) * BATCH;
+        List<Customer> batch = new ArrayList<Customer>(BATCH);
+        for(int i = 0; i < BATCH; i++) {
+            batch.add(customer(first + i));
+        }
+        List<Customer> conflicts = customerRepository.saveAllIfAbsent(batch);
+        customerRepository.deleteAll(batch);
+        return conflicts;
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private long randomId() {
+        return ThreadLocalRandom.current().nextLong(size);
+    }
+
+    private static Customer customer(long id) {
+        return new Customer().setId(id).setName("First" + id, "Last" + id).addContact("c" + id + "@freerider.de");
+    }
+}
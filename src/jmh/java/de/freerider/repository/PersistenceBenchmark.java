@@ -0,0 +1,149 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Persistence of CustomerRepository: saves logged to the write-ahead log with each
+ * durability level from 32 threads, and writing and loading snapshots of 100K and
+ * 1M customers. Results depend mostly on the disk the temporary directory is on.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class PersistenceBenchmark {
+
+    /**
+     * Repository logging to a write-ahead log in a temporary directory.
+     */
+    @State(Scope.Benchmark)
+    public static class Logged {
+        // WriteAheadLog.Durability, package-private and not visible to generated code
+        @Param({ "FSYNC", "GROUP", "ASYNC" })
+        public String durability;
+
+        CustomerRepository customerRepository;
+        private WriteAheadLog log;
+        private Path dir;
+
+        @Setup
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("wal-benchmark");
+            customerRepository = new CustomerRepository();
+            log = WriteAheadLog.open(dir, WriteAheadLog.Durability.valueOf(durability), 1000, 0, new WriteAheadLog.Replay() {
+                @Override
+                public void save(long seq, Customer customer) { }
+
+                @Override
+                public void delete(long seq, long id) { }
+
+                @Override
+                public void clear(long seq) { }
+            });
+            customerRepository.attachLog(log);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            customerRepository.attachLog(null);
+            log.close();
+            delete(dir);
+        }
+    }
+
+    /**
+     * Repository of customers and a directory snapshots are written to.
+     */
+    @State(Scope.Benchmark)
+    public static class Snapshotted {
+        @Param({ "100000", "1000000" })
+        public int size;
+
+        List<Customer> customers;
+        Path dir;
+
+        @Setup
+        public void setup() throws IOException {
+            customers = new ArrayList<Customer>(size);
+            for(int i = 0; i < size; i++) {
+                customers.add(new Customer().setId(i).setName("First" + i, "Last" + i).addContact("c" + i + "@freerider.de"));
+            }
+            dir = Files.createTempDirectory("snapshot-benchmark");
+            Snapshot.write(dir, size, customers, Snapshot.SEGMENT_SIZE);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Save a random customer, returns when the log record is as durable as configured.
+     */
+    @Benchmark
+    @Threads(32)
+    public Object loggedSave(Logged logged) {
+        long id = ThreadLocalRandom.current().nextLong(100_000);
+        return logged.customerRepository.save(new Customer().setId(id).setName("First" + id, "Last" + id));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object writeSnapshot(Snapshotted snapshotted) throws IOException {
+        return Snapshot.write(snapshotted.dir, snapshotted.size, snapshotted.customers, Snapshot.SEGMENT_SIZE);
+    }
+
+    /**
+     * Load the snapshot into an empty repository including building the indexes.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object loadSnapshot(Snapshotted snapshotted) throws IOException {
+        Customer[][] loaded = { new Customer[0] };
+        Snapshot.loadInto(snapshotted.dir, count -> loaded[0] = new Customer[count]);
+        CustomerRepository customerRepository = new CustomerRepository();
+        customerRepository.load(loaded[0]);
+        return customerRepository;
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private static void delete(Path dir) throws IOException {
+        try(Stream<Path> files = Files.walk(dir)) {
+            for(Path file: (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
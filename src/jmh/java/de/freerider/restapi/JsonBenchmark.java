@@ -0,0 +1,106 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.freerider.datamodel.Customer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of building and binding JSON of the REST API for 100 and 10K customers:
+ * streaming customers with {@link CustomersJsonWriter} as done for GET /customers,
+ * serializing single customers for the cache of GET /customers/{id}, and binding
+ * POST/PUT bodies into {@link CustomerJsonDTO} compared to maps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({ "100", "10000" })
+    public int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<Customer> customers;
+    // request body with size customers
+    private byte[] body;
+
+    @Setup
+    public void setup() throws IOException {
+        customers = new ArrayList<Customer>(size);
+        for(int i = 0; i < size; i++) {
+            customers.add(new Customer().setId(i).setName("First" + i, "Last" + i)
+                    .addContact("c" + i + "@freerider.de").addContact("(030) 3945-" + i));
+        }
+        List<CustomerJsonDTO> dtos = new ArrayList<CustomerJsonDTO>(size);
+        for(Customer customer: customers) {
+            dtos.add(new CustomerJsonDTO(null, customer.getLastName(), customer.getFirstName(), CustomersJsonWriter.contacts(customer)));
+        }
+        body = objectMapper.writeValueAsBytes(dtos);
+    }
+
+    @Benchmark
+    public long writeCustomers() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try(JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            CustomersJsonWriter.writeCustomers(generator, customers);
+        }
+        return out.bytes;
+    }
+
+    @Benchmark
+    public long serializeEachCustomer() {
+        long bytes = 0;
+        for(Customer customer: customers) {
+            bytes += CustomersJsonWriter.toBytes(objectMapper.getFactory(), customer).length;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public Object bindDTOs() throws IOException {
+        return objectMapper.readValue(body, CustomerJsonDTO[].class);
+    }
+
+    @Benchmark
+    public Object bindMaps() throws IOException {
+        return objectMapper.readValue(body, Map[].class);
+    }
+
+    /**
+     * Stream counting and discarding bytes, keeps the written JSON from being optimized away.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        long bytes = 0;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.freerider.datamodel.Customer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode throughput of 100K customers in the wire formats of {@link WireFormats}:
+ * encoding streams customers with {@link CustomersJsonWriter} as done for GET /customers,
+ * decoding reads {@link CustomerJsonDTO} objects one by one from a parser as done for
+ * POST /customers/import. Payload sizes of the formats are printed by the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({ "json", "cbor", "smile" })
+    public String format;
+
+    @Param({ "100000" })
+    public int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private JsonFactory factory;
+    private List<Customer> customers;
+    // customers encoded in format
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws IOException {
+        factory = new WireFormats(objectMapper).factory(mediaType(format));
+        customers = new ArrayList<Customer>(size);
+        for(int i = 0; i < size; i++) {
+            customers.add(new Customer().setId(i).setName("First" + i, "Last" + i)
+                    .addContact("c" + i + "@freerider.de").addContact("(030) 3945-" + i));
+        }
+        try(ByteArrayBuilder bytes = new ByteArrayBuilder(size * 64);
+            JsonGenerator generator = factory.createGenerator(bytes, JsonEncoding.UTF8)) {
+            CustomersJsonWriter.writeCustomers(generator, customers);
+            generator.flush();
+            payload = bytes.toByteArray();
+        }
+        System.out.printf("payload %s: %d customers in %d bytes, %.1f bytes/customer%n",
+                format, size, payload.length, (double) payload.length / size);
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        try(JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            CustomersJsonWriter.writeCustomers(generator, customers);
+        }
+        return out.bytes;
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        int count = 0;
+        try(JsonParser parser = factory.createParser(payload)) {
+            parser.nextToken();     // START_ARRAY
+            while(parser.nextToken() == JsonToken.START_OBJECT) {
+                CustomerJsonDTO dto = objectMapper.readValue(parser, CustomerJsonDTO.class);
+                count += dto.getName().length();
+            }
+        }
+        return count;
+    }
+
+    private static MediaType mediaType(String format) {
+        switch(format) {
+            case "cbor": return WireFormats.CBOR;
+            case "smile": return WireFormats.SMILE;
+            default: return MediaType.APPLICATION_JSON;
+        }
+    }
+
+    /**
+     * Stream counting and discarding bytes, keeps the written bytes from being optimized away.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        long bytes = 0;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+}
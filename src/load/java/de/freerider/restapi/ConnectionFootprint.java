@@ -0,0 +1,203 @@
+package de.freerider.restapi;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many idle change stream subscribers fit into one GB of server heap, for the
+ * servlet and the reactive variant of the customers API. Each variant is started as a child
+ * process with the classpath of this harness, the same heap settings and persistence turned
+ * off. The harness opens {@code connections.count} connections to
+ * {@code GET /api/v1/customers/changes/stream} and compares the heap used after a full GC
+ * before and after, read from the child over JMX. Configured by system properties:
+ * <pre>{@code
+ * connections.count            - subscribers opened per variant, 2000
+ * connections.modes            - variants measured, servlet,reactive
+ * connections.port             - port of the server, 18080
+ * connections.jmx-port         - JMX port of the server, 18099
+ * connections.server.jvm-args  - JVM arguments of the server, -Xms1g -Xmx1g
+ * connections.report           - file the report is written to, target/connections-report.txt
+ * }</pre>
+ * The report has one line per variant with heap and thread counts, the heap retained per
+ * connection and the resulting connections per GB of heap.
+ */
+public class ConnectionFootprint {
+    // connections opened before the baseline, so lazily created server state is not counted
+    private static final int WARMUP_CONNECTIONS = 10;
+    // time waited for the server to accept requests
+    private static final long STARTUP_SECONDS = 60;
+    private static final long GIGABYTE = 1L << 30;
+
+    private final int count;
+    private final int port;
+    private final int jmxPort;
+    private final List<String> jvmArgs;
+
+    ConnectionFootprint( int count, int port, int jmxPort, List<String> jvmArgs ) {
+        this.count = count;
+        this.port = port;
+        this.jmxPort = jmxPort;
+        this.jvmArgs = jvmArgs;
+    }
+
+    public static void main( String[] args ) throws Exception {
+        int count = Integer.getInteger( "connections.count", 2000 );
+        String[] modes = System.getProperty( "connections.modes", "servlet,reactive" ).split( "," );
+        List<String> jvmArgs = List.of( System.getProperty( "connections.server.jvm-args", "-Xms1g -Xmx1g" ).trim().split( "\\s+" ) );
+        Path report = Paths.get( System.getProperty( "connections.report", "target/connections-report.txt" ) );
+        ConnectionFootprint footprint = new ConnectionFootprint( count,
+                Integer.getInteger( "connections.port", 18080 ), Integer.getInteger( "connections.jmx-port", 18099 ), jvmArgs );
+
+        List<String> lines = new ArrayList<>();
+        lines.add( String.format( Locale.ROOT, "%-9s %11s %12s %12s %8s %8s %12s %13s",
+                "mode", "connections", "heap-before", "heap-after", "threads", "+threads", "bytes/conn", "conns/GB-heap" ) );
+        for(String mode: modes) {
+            lines.add( footprint.measure( mode.trim() ) );
+            System.out.println( lines.get( lines.size() - 1 ) );
+        }
+        Files.createDirectories( report.toAbsolutePath().getParent() );
+        try( PrintWriter out = new PrintWriter( Files.newBufferedWriter( report, StandardCharsets.UTF_8 ) ) ) {
+            out.println( "# " + count + " idle subscribers of /api/v1/customers/changes/stream, server " + String.join( " ", jvmArgs ) );
+            lines.forEach( out::println );
+        }
+        System.out.println( "report written to " + report );
+    }
+
+    /**
+     * Start the server in the given mode, open connections and measure its heap.
+     *
+     * @param mode web application type of the server, servlet or reactive.
+     * @return report line of the mode.
+     * @throws Exception when the server cannot be started or measured.
+     */
+    String measure( String mode ) throws Exception {
+        Process server = start( mode );
+        List<Socket> sockets = new ArrayList<>( count + WARMUP_CONNECTIONS );
+        try( JMXConnector jmx = connect() ) {
+            MBeanServerConnection connection = jmx.getMBeanServerConnection();
+            MemoryMXBean memory = ManagementFactory.newPlatformMXBeanProxy( connection, ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class );
+            ThreadMXBean threads = ManagementFactory.newPlatformMXBeanProxy( connection, ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class );
+            for(int i = 0; i < WARMUP_CONNECTIONS; i++) {
+                sockets.add( subscribe() );
+            }
+            long heapBefore = usedHeap( memory );
+            int threadsBefore = threads.getThreadCount();
+            for(int i = 0; i < count; i++) {
+                sockets.add( subscribe() );
+            }
+            long heapAfter = usedHeap( memory );
+            int threadsAfter = threads.getThreadCount();
+            long perConnection = Math.max( 1, (heapAfter - heapBefore) / count );
+            return String.format( Locale.ROOT, "%-9s %11d %12d %12d %8d %8d %12d %13d",
+                    mode, count, heapBefore, heapAfter, threadsAfter, threadsAfter - threadsBefore,
+                    perConnection, GIGABYTE / perConnection );
+        } finally {
+            for(Socket socket: sockets) {
+                socket.close();
+            }
+            server.destroy();
+            if(!server.waitFor( 30, TimeUnit.SECONDS )) server.destroyForcibly();
+        }
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private Process start( String mode ) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add( Paths.get( System.getProperty( "java.home" ), "bin", "java" ).toString() );
+        command.addAll( jvmArgs );
+        command.add( "-Dcom.sun.management.jmxremote.port=" + jmxPort );
+        command.add( "-Dcom.sun.management.jmxremote.authenticate=false" );
+        command.add( "-Dcom.sun.management.jmxremote.ssl=false" );
+        command.add( "-classpath" );
+        command.add( System.getProperty( "java.class.path" ) );
+        command.add( "de.freerider.app.Application" );
+        command.add( "--spring.main.web-application-type=" + mode );
+        command.add( "--server.port=" + port );
+        command.add( "--app.repository.data-dir=" );
+        command.add( "--app.access-log.sampling=0" );
+        Process server = new ProcessBuilder( command )
+                .redirectErrorStream( true )
+                .redirectOutput( Paths.get( "target", "connections-" + mode + ".log" ).toFile() )
+                .start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( STARTUP_SECONDS );
+        while(!ready()) {
+            if(!server.isAlive() || System.nanoTime() > deadline) {
+                server.destroyForcibly();
+                throw new IllegalStateException( mode + " server did not start, see target/connections-" + mode + ".log" );
+            }
+            Thread.sleep( 200 );
+        }
+        return server;
+    }
+
+    private boolean ready() {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL( "http://localhost:" + port + "/api/v1/customers?limit=1" ).openConnection();
+            try {
+                return connection.getResponseCode() == 200;
+            } finally {
+                connection.disconnect();
+            }
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    private JMXConnector connect() throws IOException {
+        return JMXConnectorFactory.connect( new JMXServiceURL( "service:jmx:rmi:///jndi/rmi://localhost:" + jmxPort + "/jmxrmi" ) );
+    }
+
+    // heap used after full collections, repeated until the value settles
+    private static long usedHeap( MemoryMXBean memory ) throws InterruptedException {
+        long used = Long.MAX_VALUE;
+        for(int i = 0; i < 5; i++) {
+            memory.gc();
+            Thread.sleep( 200 );
+            long now = memory.getHeapMemoryUsage().getUsed();
+            if(Math.abs( used - now ) < 64 * 1024) return now;
+            used = now;
+        }
+        return used;
+    }
+
+    // open subscription and wait for the response headers, the connection stays open afterwards
+    private Socket subscribe() throws IOException {
+        Socket socket = new Socket( "localhost", port );
+        socket.getOutputStream().write( ("GET /api/v1/customers/changes/stream HTTP/1.1\r\nHost: localhost\r\n"
+                + "Accept: text/event-stream\r\n\r\n").getBytes( StandardCharsets.US_ASCII ) );
+        InputStream in = socket.getInputStream();
+        int matched = 0;	// bytes of "\r\n\r\n" matched so far
+        StringBuilder status = new StringBuilder();
+        while(matched < 4) {
+            int b = in.read();
+            if(b < 0) throw new IOException( "connection closed by server after " + status );
+            if(status.length() < 12) status.append( (char) b );
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        if(!status.toString().endsWith( "200" )) throw new IOException( "subscription failed: " + status );
+        return socket;
+    }
+}
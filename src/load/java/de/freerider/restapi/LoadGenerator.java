@@ -0,0 +1,305 @@
+package de.freerider.restapi;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop HTTP load generator for the customers REST API of a running server.
+ * Requests are started at a fixed arrival rate regardless of how fast the server
+ * responds, and latency is measured from the time a request was scheduled to start,
+ * not from when it was sent, so a stalled server shows up in the percentiles instead
+ * of slowing down the load (no coordinated omission).
+ * <p>
+ * Before the run, {@code load.customers} customers are inserted with ids starting at
+ * {@value #FIRST_ID}. Operations and their default share of requests:
+ * <pre>{@code
+ * get      GET    /api/v1/customers/{id}          random inserted customer
+ * list     GET    /api/v1/customers?limit=100     page of customers after a random id
+ * post     POST   /api/v1/customers               new customer with next free id
+ * put      PUT    /api/v1/customers               rename random inserted customer
+ * delete   DELETE /api/v1/customers/{id}          customer created by post, else get
+ * }</pre>
+ * Configured by system properties:
+ * <pre>{@code
+ * load.url             - base URL of the server, http://localhost:8080
+ * load.rate            - requests started per second, 200
+ * load.warmup-seconds  - seconds of load before measuring, 10
+ * load.seconds         - seconds measured, 60
+ * load.mix             - weights of operations, get:70,list:5,post:10,put:10,delete:5
+ * load.customers       - customers inserted before the run, 10000
+ * load.max-in-flight   - requests waiting for responses, further requests are dropped, 1000
+ * load.seed            - seed of the random choice of operations and ids, 1
+ * load.report          - file the report is written to, target/load-report.txt
+ * }</pre>
+ * Customers created during the run are deleted at its end, so runs can be repeated
+ * against the same server. The report has one line per operation with request and
+ * error counts, throughput and latency percentiles, in a fixed layout meant to be
+ * diffed between commits. Dropped requests count as errors.
+ */
+public class LoadGenerator {
+    // ids of customers inserted before the run start here
+    static final long FIRST_ID = 1_000_000;
+    // customers per POST request while inserting customers before the run
+    private static final int INSERT_BATCH = 1000;
+    // time waited for outstanding responses after the run
+    private static final long DRAIN_SECONDS = 30;
+    // percentiles of the report
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final String customersUrl;
+    private final int rate;
+    private final int warmupSeconds;
+    private final int seconds;
+    private final int customers;
+    private final int maxInFlight;
+    private final SplittableRandom random;
+    private final Operation[] operations;
+    private final int totalWeight;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // ids of customers created by post, removed by delete
+    private final ConcurrentLinkedQueue<Long> created = new ConcurrentLinkedQueue<Long>();
+    private long nextId;
+
+    /**
+     * Operation of the mix with its share and results.
+     */
+    private static final class Operation {
+        final String name;
+        final int weight;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+
+        Operation(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator(
+                System.getProperty("load.url", "http://localhost:8080"),
+                Integer.getInteger("load.rate", 200),
+                Integer.getInteger("load.warmup-seconds", 10),
+                Integer.getInteger("load.seconds", 60),
+                System.getProperty("load.mix", "get:70,list:5,post:10,put:10,delete:5"),
+                Integer.getInteger("load.customers", 10_000),
+                Integer.getInteger("load.max-in-flight", 1000),
+                Long.getLong("load.seed", 1));
+        generator.insertCustomers();
+        generator.run();
+        Path report = Paths.get(System.getProperty("load.report", "target/load-report.txt"));
+        generator.report(report);
+        System.out.print(Files.readString(report));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param url base URL of the server.
+     * @param rate requests started per second.
+     * @param warmupSeconds seconds of load before measuring.
+     * @param seconds seconds measured.
+     * @param mix weights of operations, e.g. "get:70,post:30".
+     * @param customers customers inserted before the run.
+     * @param maxInFlight requests waiting for responses, further requests are dropped.
+     * @param seed seed of the random choice of operations and ids.
+     * @throws IllegalArgumentException when the mix contains unknown operations or no weights.
+     */
+    LoadGenerator(String url, int rate, int warmupSeconds, int seconds, String mix, int customers, int maxInFlight, long seed) {
+        if(rate <= 0 || seconds <= 0 || customers <= 0) throw new IllegalArgumentException("rate, seconds and customers must be positive!");
+        this.customersUrl = url.replaceAll("/+$", "") + "/api/v1/customers";
+        this.rate = rate;
+        this.warmupSeconds = warmupSeconds;
+        this.seconds = seconds;
+        this.customers = customers;
+        this.maxInFlight = maxInFlight;
+        this.random = new SplittableRandom(seed);
+        this.nextId = FIRST_ID + customers;
+        List<Operation> operations = new ArrayList<Operation>();
+        int total = 0;
+        for(String part: mix.split(",")) {
+            String[] nameAndWeight = part.trim().split(":");
+            String name = nameAndWeight[0].trim();
+            if(! List.of("get", "list", "post", "put", "delete").contains(name)) throw new IllegalArgumentException("unknown operation " + name + "!");
+            int weight = Integer.parseInt(nameAndWeight[1].trim());
+            operations.add(new Operation(name, weight));
+            total += weight;
+        }
+        if(total <= 0) throw new IllegalArgumentException("mix must have positive weights!");
+        this.operations = operations.toArray(new Operation[0]);
+        this.totalWeight = total;
+    }
+
+    /**
+     * Insert customers the operations work on, customers left from an earlier run
+     * against the same server are kept.
+     *
+     * @throws IOException when the server rejects customers or cannot be reached.
+     * @throws InterruptedException when interrupted while waiting for the server.
+     */
+    void insertCustomers() throws IOException, InterruptedException {
+        for(long first = FIRST_ID; first < FIRST_ID + customers; first += INSERT_BATCH) {
+            StringBuilder body = new StringBuilder("[");
+            for(long id = first; id < Math.min(first + INSERT_BATCH, FIRST_ID + customers); id++) {
+                body.append(body.length() > 1 ? "," : "").append(customer(id, "Last" + id));
+            }
+            HttpResponse<String> response = client.send(json("POST", customersUrl, body.append("]").toString()), HttpResponse.BodyHandlers.ofString());
+            if(response.statusCode() != 201 && response.statusCode() != 409) {
+                throw new IOException("inserting customers failed with status " + response.statusCode() + ": " + response.body());
+            }
+        }
+    }
+
+    /**
+     * Start requests at the configured rate for warmup and measured time, then wait
+     * for outstanding responses and delete the customers created by post. Only requests
+     * scheduled after the warmup are recorded.
+     *
+     * @throws InterruptedException when interrupted while waiting for responses.
+     */
+    void run() throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long requests = (long) rate * (warmupSeconds + seconds);
+        long warmupRequests = (long) rate * warmupSeconds;
+        long start = System.nanoTime();
+        for(long i = 0; i < requests; i++) {
+            long scheduled = start + i * intervalNanos;
+            long wait;
+            while((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            start(pick(), scheduled, i >= warmupRequests);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+        while(inFlight.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // leave the server as found, a following run creates the same ids again
+        for(Long id; (id = created.poll()) != null; ) {
+            try {
+                client.send(HttpRequest.newBuilder(URI.create(customersUrl + "/" + id)).DELETE().build(), HttpResponse.BodyHandlers.discarding());
+            } catch(IOException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Write the report of measured requests.
+     *
+     * @param file file the report is written to, parent directories are created.
+     * @throws IOException when writing fails.
+     */
+    void report(Path file) throws IOException {
+        if(file.getParent() != null) Files.createDirectories(file.getParent());
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.printf(Locale.ROOT, "# rate=%d/s warmup=%ds measured=%ds customers=%d max-in-flight=%d%n",
+                    rate, warmupSeconds, seconds, customers, maxInFlight);
+            out.printf(Locale.ROOT, "%-8s %9s %7s %10s %9s %9s %9s %9s %9s%n",
+                    "op", "requests", "errors", "req/s", "p50ms", "p90ms", "p99ms", "p999ms", "maxms");
+            for(Operation operation: operations) {
+                long count = operation.latency.count();
+                long[] percentiles = operation.latency.percentiles(PERCENTILES);
+                out.printf(Locale.ROOT, "%-8s %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                        operation.name, count, operation.errors.sum(), (double) count / seconds,
+                        millis(percentiles[0]), millis(percentiles[1]), millis(percentiles[2]), millis(percentiles[3]),
+                        millis(operation.latency.max()));
+            }
+        }
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private Operation pick() {
+        int r = random.nextInt(totalWeight);
+        for(Operation operation: operations) {
+            if((r -= operation.weight) < 0) return operation;
+        }
+        return operations[operations.length - 1];
+    }
+
+    // send request of operation scheduled at the given time, record latency from then
+    private void start(Operation operation, long scheduled, boolean measured) {
+        if(inFlight.get() >= maxInFlight) {
+            if(measured) {
+                operation.latency.record(System.nanoTime() - scheduled);
+                operation.errors.increment();
+            }
+            return;
+        }
+        long id = FIRST_ID + random.nextInt(customers);
+        HttpRequest request;
+        Long createdId = null;
+        switch(operation.name) {
+            case "list":
+                request = HttpRequest.newBuilder(URI.create(customersUrl + "?limit=100&after=" + id)).GET().build();
+                break;
+            case "post":
+                createdId = nextId++;
+                request = json("POST", customersUrl, "[" + customer(createdId, "Last" + createdId) + "]");
+                break;
+            case "put":
+                request = json("PUT", customersUrl, "[" + customer(id, "Renamed" + random.nextInt(1000)) + "]");
+                break;
+            case "delete":
+                Long deleted = created.poll();
+                request = deleted != null ? HttpRequest.newBuilder(URI.create(customersUrl + "/" + deleted)).DELETE().build()
+                        : HttpRequest.newBuilder(URI.create(customersUrl + "/" + id)).GET().build();
+                break;
+            default:
+                request = HttpRequest.newBuilder(URI.create(customersUrl + "/" + id)).GET().build();
+        }
+        Long posted = createdId;
+        inFlight.incrementAndGet();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+            inFlight.decrementAndGet();
+            boolean failed = failure != null || response.statusCode() >= 400;
+            if(posted != null && ! failed) created.add(posted);
+            if(measured) {
+                operation.latency.record(System.nanoTime() - scheduled);
+                if(failed) operation.errors.increment();
+            }
+        });
+    }
+
+    private static HttpRequest json(String method, String url, String body) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static String customer(long id, String name) {
+        return "{\"id\":\"" + id + "\",\"name\":\"" + name + "\",\"first\":\"First" + id + "\",\"contacts\":\"c" + id + "@freerider.de\"}";
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -9,6 +9,8 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.event.EventListener;
 
+import java.lang.management.ManagementFactory;
+
 @SpringBootApplication
 @ComponentScan(
     // launch Controllers from package: de.freerider.restapi
@@ -25,6 +27,15 @@ public class Application {
 
     @EventListener(ApplicationReadyEvent.class)
     public void runAfterSpringStartup() { // runs when Spring is ready
+        if(customerRepository.count() == 0) { // seed only when nothing was restored from disk
+            seed();
+        }
+        long count = customerRepository.count();
+        System.out.println("repository<Customer> with: " + count + " entries, ready to serve "
+                + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after JVM start");
+    }
+
+    private void seed() {
         customerRepository.save(new Customer()
                 .setId(1).setName("Eric", "Meyer").addContact("eric98@yahoo.com")
                 .addContact("(030) 7000‐640000") // updated phone number
@@ -36,7 +47,5 @@ public class Application {
         customerRepository.save(new Customer()
                 .setId(3).setName("Tim", "Schulz‐Mueller").addContact("tim2346@gmx.de")
         );
-        long count = customerRepository.count(); // 3 customers added to repository
-        System.out.println("repository<Customer> with: " + count + " entries");
     }
 }
\ No newline at end of file
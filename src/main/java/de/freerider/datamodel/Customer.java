@@ -38,6 +38,11 @@ public class Customer {
      */
     private Status status = Status.New;
 
+    /**
+     * listener notified about changes, null when no listener is registered.
+     */
+    private volatile Listener listener = null;
+
 
     /**
      * Definition of Customer Status states.
@@ -51,6 +56,47 @@ public class Customer {
     };
 
 
+    /**
+     * Listener notified after attributes of a Customer have changed. Repositories
+     * register as listener of stored customers to keep their indexes consistent.
+     */
+    public interface Listener {
+
+        /**
+         * Called after first- or lastName of customer changed.
+         * 
+         * @param customer changed customer.
+         * @param oldFirstName value of firstName before the change.
+         * @param oldLastName value of lastName before the change.
+         */
+        void nameChanged( Customer customer, String oldFirstName, String oldLastName );
+
+        /**
+         * Called after a contact was added to customer.
+         * 
+         * @param customer changed customer.
+         * @param contact added contact.
+         */
+        void contactAdded( Customer customer, String contact );
+
+        /**
+         * Called after a contact was removed from customer.
+         * 
+         * @param customer changed customer.
+         * @param contact removed contact.
+         */
+        void contactRemoved( Customer customer, String contact );
+
+        /**
+         * Called after status of customer changed.
+         * 
+         * @param customer changed customer.
+         * @param oldStatus status before the change.
+         */
+        void statusChanged( Customer customer, Status oldStatus );
+    }
+
+
     /**
      * Default constructor
      */
@@ -135,8 +181,14 @@ public class Customer {
      * @return chainable self-reference.
      */
     public Customer setName( String first, String last ) {
+    	String oldFirstName = this.firstName;
+    	String oldLastName = this.lastName;
     	this.firstName = first != null? first.trim() : this.firstName;
 		this.lastName = last != null? last.trim() : this.lastName;
+		Listener l = listener;
+		if( l != null && ( ! oldFirstName.equals( firstName ) || ! oldLastName.equals( lastName ) ) ) {
+			l.nameChanged( this, oldFirstName, oldLastName );
+		}
 		return this;
     }
 
@@ -174,6 +226,10 @@ public class Customer {
 			// avoid duplicate entries
 			if( ! contacts.contains( contact ) ) {
 				contacts.add( contact );
+				Listener l = listener;
+				if( l != null ) {
+					l.contactAdded( this, contact );
+				}
 			}
 		}
 		return this;
@@ -188,7 +244,11 @@ public class Customer {
      */
     public void deleteContact( int i ) {
     	if( i >= 0 && i < contacts.size() ) {
-			contacts.remove( i );
+			String contact = contacts.remove( i );
+			Listener l = listener;
+			if( l != null ) {
+				l.contactRemoved( this, contact );
+			}
 		}
     }
 
@@ -197,7 +257,12 @@ public class Customer {
      * Delete all contacts.
      */
     public void deleteAllContacts() {
+    	Listener l = listener;
+    	List<String> removed = l != null? new ArrayList<String>( contacts ) : null;
     	contacts.clear();
+    	if( l != null ) {
+    		removed.forEach( contact -> l.contactRemoved( this, contact ) );
+    	}
     }
 
 
@@ -218,11 +283,38 @@ public class Customer {
      * @return chainable self-reference.
      */
     public Customer setStatus( Customer.Status status ) {
+        Status oldStatus = this.status;
         this.status = status;
+        Listener l = listener;
+        if( l != null && oldStatus != status ) {
+        	l.statusChanged( this, oldStatus );
+        }
         return this;
     }
 
 
+    /**
+     * Listener getter.
+     * 
+     * @return registered listener or null.
+     */
+    public Listener getListener() {
+    	return listener;
+    }
+
+
+    /**
+     * Listener setter, replaces a previously registered listener.
+     * 
+     * @param listener listener notified about changes, null to unregister.
+     * @return chainable self-reference.
+     */
+    public Customer setListener( Listener listener ) {
+    	this.listener = listener;
+    	return this;
+    }
+
+
 	/*
 	 * private methods
 	 */
@@ -0,0 +1,74 @@
+package de.freerider.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded in-memory log of the most recent changes of the repository, a ring buffer
+ * indexed by sequence number. Each sequence number has its own slot, the change with
+ * sequence number {@code seq} overwrites the one with {@code seq - capacity}.
+ * <p>
+ * Thread-safe, changes are added concurrently under different stripe locks of
+ * {@link CustomerRepository} and read without locking. A slot still holding an older
+ * change marks a change that has been counted but not yet added, reads stop there.
+ */
+final class ChangeLog {
+    // most recent changes, change with sequence number seq in slot seq & mask
+    private final AtomicReferenceArray<CustomerRepository.Change> ring;
+    private final int mask;
+    // changes up to this sequence number are not retained, e.g. before a bulk load
+    private volatile long floor;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity number of retained changes, must be a power of two.
+     * @param floor sequence number preceding the first change added.
+     */
+    ChangeLog(int capacity, long floor) {
+        if(Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two!");
+        this.ring = new AtomicReferenceArray<CustomerRepository.Change>(capacity);
+        this.mask = capacity - 1;
+        this.floor = floor;
+    }
+
+    /**
+     * Add change, overwriting the change {@code capacity} sequence numbers before.
+     *
+     * @param change change to add.
+     */
+    void add(CustomerRepository.Change change) {
+        ring.setRelease((int) (change.getSeq() & mask), change);
+    }
+
+    /**
+     * Drop all changes up to sequence number, consumers of earlier changes must resync.
+     *
+     * @param seq sequence number of last change dropped.
+     */
+    void reset(long seq) {
+        floor = seq;
+    }
+
+    /**
+     * Return changes following sequence number {@code seq} in order.
+     *
+     * @param seq sequence number of last change known to the caller.
+     * @param last sequence number of the most recent change counted.
+     * @param limit maximum number of changes returned.
+     * @return changes after {@code seq}, or {@literal null} if they are no longer retained.
+     */
+    List<CustomerRepository.Change> since(long seq, long last, int limit) {
+        if(seq < floor || seq > last) return null;
+        List<CustomerRepository.Change> changes = new ArrayList<CustomerRepository.Change>((int) Math.min(limit, last - seq));
+        for(long s = seq + 1; s <= last && changes.size() < limit; s++) {
+            CustomerRepository.Change change = ring.getAcquire((int) (s & mask));
+            if(change == null || change.getSeq() < s) break;	// counted, not yet added
+            if(change.getSeq() > s) return null;	// overwritten
+            changes.add(change);
+        }
+        // a reset while reading drops changes that were read
+        return seq < floor ? null : changes;
+    }
+}
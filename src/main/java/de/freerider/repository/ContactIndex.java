@@ -0,0 +1,120 @@
+package de.freerider.repository;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash index from normalized contact (email, phone number) to the ids of customers
+ * having that contact. Contacts are normalized such that different notations of the
+ * same contact find the same customers:
+ * <pre>{@code
+ * contact                    -> key
+ * - " Eric98@Yahoo.com"      -> "eric98@yahoo.com"
+ * - "(030) 3945-642298"      -> "0303945642298"
+ * - "+49 30 3945 642298"     -> "+49303945642298"
+ * }</pre>
+ * Thread-safe, entries of one customer are updated under the customer's stripe
+ * lock held by {@link CustomerRepository}.
+ */
+final class ContactIndex {
+    // no ids found
+    private static final long[] NONE = new long[0];
+    // normalized contact -> ids of customers, arrays are replaced, never modified
+    private final ConcurrentHashMap<String, long[]> ids = new ConcurrentHashMap<String, long[]>();
+
+    /**
+     * Add index entry for contact of customer with id.
+     *
+     * @param contact contact of customer.
+     * @param id id of customer.
+     */
+    void add(String contact, long id) {
+        String key = normalize(contact);
+        if(key.length() == 0) return;
+        ids.compute(key, (k, found) -> {
+            if(found == null) return new long[] { id };
+            for(long i: found) {
+                if(i == id) return found;
+            }
+            long[] extended = Arrays.copyOf(found, found.length + 1);
+            extended[found.length] = id;
+            return extended;
+        });
+    }
+
+    /**
+     * Remove index entry for contact of customer with id.
+     *
+     * @param contact contact of customer.
+     * @param id id of customer.
+     */
+    void remove(String contact, long id) {
+        String key = normalize(contact);
+        if(key.length() == 0) return;
+        ids.computeIfPresent(key, (k, found) -> {
+            int n = 0;
+            long[] reduced = new long[found.length];
+            for(long i: found) {
+                if(i != id) reduced[n++] = i;
+            }
+            return n == 0 ? null : n == found.length ? found : Arrays.copyOf(reduced, n);
+        });
+    }
+
+    void clear() {
+        ids.clear();
+    }
+
+    /**
+     * Find ids of customers having contact.
+     *
+     * @param contact contact in any notation.
+     * @return ids of customers with contact, empty array if none.
+     */
+    long[] find(String contact) {
+        long[] found = ids.get(normalize(contact));
+        return found != null ? found : NONE;
+    }
+
+    /**
+     * Normalize contact: email addresses are compared case-insensitive, phone numbers
+     * by digits (and leading {@code '+'}) only.
+     *
+     * @param contact contact to normalize.
+     * @return normalized contact, "" for null.
+     */
+    static String normalize(String contact) {
+        if(contact == null) return "";
+        String c = contact.trim();
+        if(c.indexOf('@') < 0 && isPhoneNumber(c)) {
+            StringBuilder sb = new StringBuilder(c.length());
+            for(int i = 0; i < c.length(); i++) {
+                char ch = c.charAt(i);
+                if(Character.isDigit(ch) || (ch == '+' && sb.length() == 0)) sb.append(ch);
+            }
+            return sb.toString();
+        }
+        return c.toLowerCase(Locale.ROOT);
+    }
+
+
+    /*
+        Private methods
+     */
+
+    // phone numbers consist of digits and separators only
+    private static boolean isPhoneNumber(String c) {
+        boolean digits = false;
+        for(int i = 0; i < c.length(); i++) {
+            char ch = c.charAt(i);
+            if(Character.isDigit(ch)) {
+                digits = true;
+            } else if(!Character.isWhitespace(ch) && "+-()/.".indexOf(ch) < 0
+                    && Character.getType(ch) != Character.DASH_PUNCTUATION) {
+                return false;
+            }
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,95 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of customers used for persistence. Layout (big endian):
+ * <pre>{@code
+ * long   id
+ * byte   status ordinal, -1 for no status
+ * string lastName
+ * string firstName
+ * int    number of contacts
+ * string contact ...
+ *
+ * string: int length of UTF-8 bytes, UTF-8 bytes
+ * }</pre>
+ */
+final class CustomerCodec {
+    // status byte of customers without status
+    private static final byte NO_STATUS = -1;
+
+    private CustomerCodec() { }
+
+    /**
+     * Encode customer into new byte array.
+     *
+     * @param customer customer to encode.
+     * @return encoded customer.
+     */
+    static byte[] encode(Customer customer) {
+        byte[] last = customer.getLastName().getBytes(StandardCharsets.UTF_8);
+        byte[] first = customer.getFirstName().getBytes(StandardCharsets.UTF_8);
+        List<byte[]> contacts = new ArrayList<byte[]>(customer.contactsCount());
+        int size = 8 + 1 + 4 + last.length + 4 + first.length + 4;
+        for(String contact: customer.getContacts()) {
+            byte[] c = contact.getBytes(StandardCharsets.UTF_8);
+            contacts.add(c);
+            size += 4 + c.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(customer.getId());
+        buffer.put(customer.getStatus() == null ? NO_STATUS : (byte) customer.getStatus().ordinal());
+        buffer.putInt(last.length).put(last);
+        buffer.putInt(first.length).put(first);
+        buffer.putInt(contacts.size());
+        for(byte[] c: contacts) {
+            buffer.putInt(c.length).put(c);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decode customer at the buffer's position, advances position past the customer.
+     *
+     * @param buffer buffer with encoded customer.
+     * @return decoded customer.
+     * @throws IllegalArgumentException when buffer does not contain a valid customer.
+     */
+    static Customer decode(ByteBuffer buffer) {
+        long id = buffer.getLong();
+        int status = buffer.get();
+        Customer.Status[] statuses = Customer.Status.values();
+        if(status != NO_STATUS && (status < 0 || status >= statuses.length)) throw new IllegalArgumentException("invalid status " + status);
+        String last = string(buffer);
+        String first = string(buffer);
+        Customer customer = new Customer().setId(id).setName(first, last).setStatus(status == NO_STATUS ? null : statuses[status]);
+        for(int n = buffer.getInt(); n > 0; n--) {
+            customer.addContact(string(buffer));
+        }
+        return customer;
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private static String string(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if(length < 0 || length > buffer.remaining()) throw new IllegalArgumentException("invalid length " + length);
+        if(buffer.hasArray()) {
+            String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return s;
+        }
+        byte[] bytes = new byte[length];	// direct (e.g. memory-mapped) buffer
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
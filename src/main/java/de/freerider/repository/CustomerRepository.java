@@ -3,14 +3,238 @@ package de.freerider.repository;
 import de.freerider.datamodel.Customer;
 import org.springframework.stereotype.Component;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
+/**
+ * Thread-safe in-memory repository of customers. Customers are spread by id over
+ * a fixed number of lock stripes such that requests served by different worker
+ * threads only contend when their ids fall into the same stripe. Operations on a
+ * single id are linearizable, operations spanning multiple stripes ({@link #findAll()},
+ * {@link #count()}) are weakly consistent except for {@link #deleteAll()}, which
+ * locks all stripes.
+ * <p>
+ * Stripes store customers in primitive {@code long}-keyed tables ({@link LongCustomerMap}),
+ * the {@code long} overloads of {@link #existsById(long)}, {@link #findById(long)} and
+ * {@link #deleteById(long)} access them without boxing ids. A compressed bitmap of the
+ * ids of each stripe ({@link IdBitmap}) supports keyset pagination with
+ * {@link #findPage(long, int)}, which merges the stripes' next ids; a sorted name index
+ * supports prefix search with {@link #findByNamePrefix(String, int)} and a contact index
+ * supports reverse lookups with {@link #findByContact(String)}. Per-status bitmaps support
+ * {@link #countByStatus(Customer.Status)} and {@link #findAllByStatus(Customer.Status...)}.
+ * Serialized forms of customers are cached for {@link #findSerializedById(long, Function)}.
+ * <p>
+ * Every change increments a global modification count ({@link #getModificationCount()}),
+ * stored customers carry the count of their last change as version ({@link #findVersionById(long)}).
+ * Unchanged counts and versions let clients skip re-reading unchanged data, e.g. with ETags.
+ * The count is the sequence number of the change in a bounded log of recent changes,
+ * {@link #findChangesSince(long, int)} lets consumers follow changes incrementally.
+ * <p>
+ * The repository registers as {@link Customer.Listener} of stored customers, indexes
+ * follow changes made to stored instances. The values a customer is indexed under are
+ * kept with its slot ({@link Indexed}), index entries are removed by those values rather
+ * than by the customer's current fields, which setters change before notifying.
+ * <p>
+ * When a {@link WriteAheadLog} is attached (see {@link RepositoryPersistence}), every
+ * change is logged under the stripe lock and the changing thread waits for the log
+ * record to become durable after releasing the lock. Logging never blocks under the
+ * lock, writers are throttled after releasing it when the log falls behind.
+ */
 @Component
 public class CustomerRepository implements CrudRepository<Customer, Long> {
-    // mapping the customers to their IDs
-    private HashMap<Long, Customer> customers = new HashMap<Long, Customer>();
+    // number of lock stripes, must be a power of two and at most 64 (stripe bit sets)
+    private static final int STRIPES = 64;
+    // number of recent changes retained for findChangesSince(), must be a power of two
+    private static final int CHANGES = 1 << 16;
+    // ids copied per stripe and page chunk beyond the stripe's even share of the page
+    private static final int PAGE_SLACK = 16;
+    // mapping the customers to their IDs, partitioned into stripes
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    // number of customers over all stripes
+    private final AtomicLong size = new AtomicLong();
+    // source of ids for entities saved without id
+    private final IdAllocator ids = new IdAllocator();
+    // index over last- and first names
+    private final NameIndex names = new NameIndex();
+    // index from contacts to customer ids
+    private final ContactIndex contacts = new ContactIndex();
+    // bitmaps of customer ids per status, partitioned like the stripes
+    private final StatusIndex statuses = new StatusIndex(STRIPES);
+    // keeps indexes consistent with changes of stored customers
+    private final Customer.Listener listener = new CustomerListener();
+    // log of changes, null when repository is not persisted
+    private volatile WriteAheadLog log = null;
+    // incremented by every change after it is applied, also source of versions and sequence
+    // numbers; starts at the creation time (seconds << 20) such that counts exceed those of
+    // earlier processes below one million changes per second, and stay below 2^53 for JSON
+    private final AtomicLong modifications = new AtomicLong((System.currentTimeMillis() / 1000) << 20);
+    // recent changes by sequence number
+    private final ChangeLog changes = new ChangeLog(CHANGES, modifications.get());
+
+    /**
+     * Partition of the repository guarded by its own lock.
+     */
+    private static final class Stripe {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final LongCustomerMap customers = new LongCustomerMap();
+        // ids of customers in ascending order for keyset pagination
+        final IdBitmap idIndex = new IdBitmap();
+    }
+
+    /**
+     * Serialized form of a customer together with the version it was taken from.
+     */
+    public static final class Serialized {
+        private final long version;
+        private final byte[] bytes;
+
+        Serialized(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns version of the customer the bytes were taken from.
+         *
+         * @return version of serialized customer.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns serialized customer, shared by all callers and must not be modified.
+         *
+         * @return serialized customer.
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Attribute values a stored customer is indexed under: names, normalized contacts
+     * and status as they were when the indexes were last updated for the customer.
+     */
+    static final class Indexed {
+        // no contacts indexed
+        private static final String[] NO_CONTACTS = new String[0];
+        final String firstName;
+        final String lastName;
+        // distinct normalized contacts, see ContactIndex.normalize()
+        final String[] contacts;
+        final Customer.Status status;
+
+        private Indexed(String firstName, String lastName, String[] contacts, Customer.Status status) {
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.contacts = contacts;
+            this.status = status;
+        }
+
+        /**
+         * Take the values customer is indexed under from its current fields.
+         *
+         * @param customer customer to index.
+         * @return indexed values of customer.
+         */
+        static Indexed of(Customer customer) {
+            ArrayList<String> keys = new ArrayList<String>(customer.contactsCount());
+            for(String contact: customer.getContacts()) {
+                String key = ContactIndex.normalize(contact);
+                if(key.length() > 0 && !keys.contains(key)) keys.add(key);
+            }
+            return new Indexed(customer.getFirstName(), customer.getLastName(),
+                    keys.isEmpty() ? NO_CONTACTS : keys.toArray(NO_CONTACTS), customer.getStatus());
+        }
+
+        boolean hasContact(String key) {
+            for(String contact: contacts) {
+                if(contact.equals(key)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Change of the repository, recorded with the modification count it produced as
+     * sequence number.
+     */
+    public static final class Change {
+
+        /**
+         * Kinds of changes.
+         */
+        public enum Type {
+            /** customer was saved or a stored customer was changed */
+            SAVE,
+            /** customer was deleted */
+            DELETE,
+            /** all customers were deleted */
+            CLEAR
+        }
+
+        private final long seq;
+        private final Type type;
+        private final long id;
+        private final Customer customer;
+
+        Change(long seq, Type type, long id, Customer customer) {
+            this.seq = seq;
+            this.type = type;
+            this.id = id;
+            this.customer = customer;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Returns id of the saved or deleted customer.
+         *
+         * @return id of customer, -1 for {@link Type#CLEAR}.
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Returns the saved customer instance, which reflects its current state and
+         * may have changed since.
+         *
+         * @return saved customer, {@literal null} unless {@link Type#SAVE}.
+         */
+        public Customer getCustomer() {
+            return customer;
+        }
+    }
+
+    /**
+     * Default constructor.
+     */
+    public CustomerRepository() {
+        for(int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
 
     /**
      * Saves a given entity. Use the returned instance for further operations as the save operation might have changed the
@@ -22,13 +246,40 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
      */
     public <S extends Customer> S save( S entity ) {
         if(entity != null) {
-            customers.put(entity.getId(), entity);
+            WriteAheadLog.Pending logged;
+            Stripe stripe = stripe(entity.getId());
+            stripe.lock.writeLock().lock();
+            try {
+                logged = added(stripe.customers.put(entity.getId(), entity), entity);
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+            awaitDurable(logged);
             return entity;
         }
         else throw new IllegalArgumentException("Entity must not be null!");
     }
 
 
+    /**
+     * Saves a given entity that has no id yet ({@code id < 0}) under a newly assigned id.
+     * Ids of deleted entities are reused, otherwise ids are taken from a sequence.
+     * Assigning the id and storing the entity is atomic, concurrent callers always
+     * receive distinct ids that are not used by any other stored entity.
+     *
+     * @param entity must not be {@literal null} and must not have an id assigned.
+     * @return the saved entity with its id assigned.
+     * @throws IllegalArgumentException in case the given {@literal entity} is {@literal null} or has an id.
+     * @throws IllegalStateException in case all ids up to {@code Long.MAX_VALUE} are in use.
+     */
+    public <S extends Customer> S saveWithGeneratedId( S entity ) {
+        if(entity == null) throw new IllegalArgumentException("Entity must not be null!");
+        if(entity.getId() >= 0) throw new IllegalArgumentException("Entity already has id " + entity.getId() + "!");
+        awaitDurable(claimGeneratedId(entity));
+        return entity;
+    }
+
+
     /**
      * Saves all given entities.
      *
@@ -52,6 +303,98 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
     }
 
 
+    /**
+     * Saves the given entities that have no id or whose id is not stored yet in one atomic
+     * step. Existence check and insert take a single table probe per entity, and the stripes
+     * of all ids are locked once, in ascending order, for the whole batch. Entities without
+     * id ({@code id < 0}) are saved afterwards under newly assigned ids as with
+     * {@link #saveWithGeneratedId(Customer)}, locking the stripe of one candidate id at a
+     * time. Entities whose id is already stored, including repeated ids within the batch,
+     * are not saved and returned.
+     *
+     * @param entities must not be {@literal null} nor must it contain {@literal null}.
+     * @return entities not saved because their id is already stored, empty if all were saved.
+     * @throws IllegalArgumentException in case the given {@link Iterable entities} or one of its entities is
+     *           {@literal null}.
+     */
+    public <S extends Customer> List<S> saveAllIfAbsent( Iterable<S> entities ) {
+        if(entities == null) throw new IllegalArgumentException("Entities must not be null!");
+        long locked = 0;	// bit set of stripes of entities with ids, STRIPES <= 64
+        ArrayList<S> generated = new ArrayList<S>();
+        for(S entity: entities) {
+            if(entity == null) throw new IllegalArgumentException("Entities must not be null!");
+            if(entity.getId() < 0) generated.add(entity);
+            else locked |= 1L << stripeIndex(entity.getId());
+        }
+        ArrayList<S> conflicts = new ArrayList<S>();
+        WriteAheadLog.Pending logged = null;
+        lockStripes(locked);
+        try {
+            for(S entity: entities) {
+                if(entity.getId() < 0) continue;
+                if(stripe(entity.getId()).customers.putIfAbsent(entity.getId(), entity) == null) {
+                    WriteAheadLog.Pending l = added(null, entity);
+                    if(l != null) logged = l;
+                }
+                else {
+                    conflicts.add(entity);
+                }
+            }
+        } finally {
+            unlockStripes(locked);
+        }
+        for(S entity: generated) {
+            WriteAheadLog.Pending l = claimGeneratedId(entity);
+            if(l != null) logged = l;
+        }
+        // records are written in order, the last one being durable implies all are
+        awaitDurable(logged);
+        return conflicts;
+    }
+
+
+    /**
+     * Replaces stored entities by the given entities with the same ids in one atomic step.
+     * The stripes of all ids are locked once, in ascending order, for the whole batch:
+     * concurrent readers see either none or all of the updates of a stripe, and entities
+     * deleted concurrently are never resurrected. Entities whose id is not stored are not
+     * saved and returned.
+     *
+     * @param entities must not be {@literal null} nor must it contain {@literal null}.
+     * @return entities not saved because no entity with their id is stored, empty if all were saved.
+     * @throws IllegalArgumentException in case the given {@link Iterable entities} or one of its entities is
+     *           {@literal null}.
+     */
+    public <S extends Customer> List<S> updateAll( Iterable<S> entities ) {
+        if(entities == null) throw new IllegalArgumentException("Entities must not be null!");
+        long locked = 0;	// bit set of stripes of entities, STRIPES <= 64
+        for(S entity: entities) {
+            if(entity == null) throw new IllegalArgumentException("Entities must not be null!");
+            locked |= 1L << stripeIndex(entity.getId());
+        }
+        ArrayList<S> notFound = new ArrayList<S>();
+        WriteAheadLog.Pending logged = null;
+        lockStripes(locked);
+        try {
+            for(S entity: entities) {
+                Stripe stripe = stripe(entity.getId());
+                if(stripe.customers.containsKey(entity.getId())) {
+                    WriteAheadLog.Pending l = added(stripe.customers.put(entity.getId(), entity), entity);
+                    if(l != null) logged = l;
+                }
+                else {
+                    notFound.add(entity);
+                }
+            }
+        } finally {
+            unlockStripes(locked);
+        }
+        // records are written in order, the last one being durable implies all are
+        awaitDurable(logged);
+        return notFound;
+    }
+
+
     /**
      * Returns whether an entity with the given id exists.
      *
@@ -61,7 +404,24 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
      */
     public boolean existsById( Long id ) {
         if (id == null) throw new IllegalArgumentException("ID must not be null!");
-        return customers.containsKey(id) ? true : false;
+        return existsById(id.longValue());
+    }
+
+
+    /**
+     * Returns whether an entity with the given id exists, primitive variant without boxing.
+     *
+     * @param id id of entity.
+     * @return {@literal true} if an entity with the given id exists, {@literal false} otherwise.
+     */
+    public boolean existsById( long id ) {
+        Stripe stripe = stripe(id);
+        stripe.lock.readLock().lock();
+        try {
+            return stripe.customers.containsKey(id);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
     }
 
 
@@ -74,17 +434,255 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
      */
     public Optional<Customer> findById( Long id ) {
         if (id == null) throw new IllegalArgumentException("ID must not be null!");
-        return customers.containsKey(id) ? Optional.of(customers.get(id)) : Optional.empty();
+        return findById(id.longValue());
+    }
+
+
+    /**
+     * Retrieves an entity by its id, primitive variant without boxing.
+     *
+     * @param id id of entity.
+     * @return the entity with the given id or {@literal Optional#empty()} if none found.
+     */
+    public Optional<Customer> findById( long id ) {
+        Stripe stripe = stripe(id);
+        stripe.lock.readLock().lock();
+        try {
+            return Optional.ofNullable(stripe.customers.get(id));
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Returns the serialized form (e.g. JSON bytes) of the entity with the given id.
+     * Serialized forms are cached with the entity under its stripe lock and dropped when
+     * the entity is saved, deleted or changed, repeated calls return the cached bytes
+     * without serializing again. All callers must pass the same serializer.
+     *
+     * @param id id of entity.
+     * @param serializer serializes entity, called under the stripe's read lock on cache misses.
+     * @return serialized entity with its version, or {@literal null} if none found.
+     * @throws IllegalArgumentException if {@literal serializer} is null.
+     */
+    public Serialized findSerializedById( long id, Function<? super Customer, byte[]> serializer ) {
+        if(serializer == null) throw new IllegalArgumentException("serializer must not be null!");
+        Stripe stripe = stripe(id);
+        stripe.lock.readLock().lock();
+        try {
+            Serialized serialized = stripe.customers.cached(id);
+            if(serialized == null) {
+                Customer customer = stripe.customers.get(id);
+                if(customer == null) return null;
+                // serialize and cache under the same lock hold, changes invalidate under the write lock
+                serialized = new Serialized(stripe.customers.version(id), serializer.apply(customer));
+                stripe.customers.cache(id, serialized);
+            }
+            return serialized;
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Returns the version of the entity with the given id: the modification count of its
+     * last save or change. Versions increase with every change of the entity; entities
+     * loaded in bulk share the version of the load.
+     *
+     * @param id id of entity.
+     * @return version of entity, {@literal 0} if none found.
+     */
+    public long findVersionById( long id ) {
+        Stripe stripe = stripe(id);
+        stripe.lock.readLock().lock();
+        try {
+            return stripe.customers.version(id);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Returns the modification count, which is incremented by every change (saves, deletes
+     * and changes of stored entities) after the change is applied: entities read after
+     * reading the count reflect at least all changes counted. The count is also the
+     * sequence number of the last change, a consumer that has read all entities continues
+     * with {@link #findChangesSince(long, int)} from the count read before.
+     *
+     * @return modification count.
+     */
+    public long getModificationCount() {
+        return modifications.get();
+    }
+
+
+    /**
+     * Returns changes following sequence number {@code seq} in sequence order, taken from
+     * a bounded log of the most recent changes. Fewer than {@code limit} changes may be
+     * returned when later changes are still being applied, the consumer continues from
+     * the sequence number of the last change returned.
+     *
+     * @param seq sequence number of last change known to the consumer, e.g. a modification count.
+     * @param limit maximum number of changes returned.
+     * @return changes after {@code seq}, empty if there are none, {@literal null} if changes after
+     *           {@code seq} are no longer retained or {@code seq} is unknown: the consumer must
+     *           read all entities again.
+     * @throws IllegalArgumentException in case {@literal limit} is not positive.
+     */
+    public List<Change> findChangesSince( long seq, int limit ) {
+        if(limit <= 0) throw new IllegalArgumentException("limit must be positive!");
+        return changes.since(seq, modifications.get(), limit);
     }
 
 
     /**
      * Returns all instances of the type.
+     * <p>
+     * The returned {@literal Iterable} is lazy and weakly consistent: stripes are visited
+     * one after another when iterating, each stripe reflects its state at the time it is
+     * reached. At most the references of one stripe are held at a time, the collection
+     * is never copied as a whole.
      *
-     * @return all entities
+     * @return all entities, {@literal null} if the repository is empty.
      */
     public Iterable<Customer> findAll() {
-        return customers.isEmpty() ? null : customers.values();
+        return size.get() == 0 ? null : () -> new StripeIterator();
+    }
+
+
+    /**
+     * Returns one page of entities in ascending id order (keyset pagination). Ids are
+     * spread evenly over the stripes, each stripe's next ids are copied from its id bitmap
+     * in chunks of about {@code limit / stripes} under the stripe's read lock and refilled
+     * when used up; chunks are merged with a min-heap over the stripes. A page costs
+     * {@code O(stripes * log n + limit * log stripes)} time and {@code O(limit + stripes)}
+     * space regardless of its position in the repository. Pages are weakly consistent with
+     * concurrent modifications.
+     *
+     * @param after id of last entity of previous page, {@code < 0} for the first page.
+     * @param limit maximum number of entities on page, must be {@code > 0}.
+     * @return entities with ids {@code > after} in ascending id order, at most {@literal limit}.
+     * @throws IllegalArgumentException if {@literal limit} is not positive.
+     */
+    public List<Customer> findPage( long after, int limit ) {
+        if(limit <= 0) throw new IllegalArgumentException("limit must be positive!");
+        int chunk = Math.min(limit, limit / STRIPES + PAGE_SLACK);
+        // min-heap of stripe cursors by their next id
+        PageCursor[] heap = new PageCursor[STRIPES];
+        int n = 0;
+        for(Stripe stripe: stripes) {
+            PageCursor cursor = new PageCursor(stripe, after, chunk);
+            if(cursor.fill()) heap[n++] = cursor;
+        }
+        for(int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(heap, n, i);
+        }
+        ArrayList<Customer> page = new ArrayList<Customer>(Math.min(limit, 1024));
+        while(page.size() < limit && n > 0) {
+            PageCursor top = heap[0];
+            page.add(top.customers[top.next++]);
+            if(top.next == top.count && !top.fill()) {
+                heap[0] = heap[--n];
+                heap[n] = null;
+            }
+            siftDown(heap, n, 0);
+        }
+        return page;
+    }
+
+
+    /**
+     * Returns entities whose last- or first name starts with the given prefix, ignoring
+     * case. Lookups use a sorted name index and cost {@code O(log n + matches)}.
+     *
+     * @param prefix name prefix, must not be {@literal null}.
+     * @param limit maximum number of entities returned, must be {@code > 0}.
+     * @return matching entities ordered by matching name, at most {@literal limit}.
+     * @throws IllegalArgumentException if {@literal prefix} is null or {@literal limit} is not positive.
+     */
+    public List<Customer> findByNamePrefix( String prefix, int limit ) {
+        if(prefix == null) throw new IllegalArgumentException("prefix must not be null!");
+        if(limit <= 0) throw new IllegalArgumentException("limit must be positive!");
+        return names.findByPrefix(prefix, limit);
+    }
+
+
+    /**
+     * Returns entities that have the given contact (email, phone number). Contacts are
+     * compared in normalized form: emails ignoring case, phone numbers by digits only.
+     * Lookups use a hash index and do not scan the repository.
+     *
+     * @param contact must not be {@literal null}.
+     * @return entities with contact, empty if none found.
+     * @throws IllegalArgumentException if {@literal contact} is null.
+     */
+    public List<Customer> findByContact( String contact ) {
+        if(contact == null) throw new IllegalArgumentException("contact must not be null!");
+        long[] found = contacts.find(contact);
+        ArrayList<Customer> customers = new ArrayList<Customer>(found.length);
+        for(long id: found) {
+            findById(id).ifPresent(customers::add);
+        }
+        return customers;
+    }
+
+
+    /**
+     * Returns the number of entities with the given status in {@code O(1)}.
+     *
+     * @param status must not be {@literal null}.
+     * @return number of entities with status.
+     * @throws IllegalArgumentException if {@literal status} is null.
+     */
+    public long countByStatus( Customer.Status status ) {
+        if(status == null) throw new IllegalArgumentException("status must not be null!");
+        return statuses.count(status);
+    }
+
+
+    /**
+     * Returns entities having any of the given statuses in ascending id order. Entities
+     * are selected from per-status bitmaps, the cost is proportional to the result size,
+     * not to the size of the repository.
+     *
+     * @param status statuses to select, must not be empty nor contain {@literal null}.
+     * @return entities with any of the statuses.
+     * @throws IllegalArgumentException if {@literal status} is empty or contains null.
+     */
+    public List<Customer> findAllByStatus( Customer.Status... status ) {
+        return findAllByIdAndStatus(null, status);
+    }
+
+
+    /**
+     * Returns entities with the given ids that have any of the given statuses in ascending
+     * id order. Ids are intersected with the per-status bitmaps, the cost is proportional
+     * to the number of ids and matches.
+     *
+     * @param ids ids to select from, {@literal null} to select from all entities. Must not contain {@literal null}.
+     * @param status statuses to select, must not be empty nor contain {@literal null}.
+     * @return entities with ids and any of the statuses.
+     * @throws IllegalArgumentException if {@literal status} is empty or contains null, or ids contain null.
+     */
+    public List<Customer> findAllByIdAndStatus( Iterable<Long> ids, Customer.Status... status ) {
+        if(status == null || status.length == 0) throw new IllegalArgumentException("status must not be empty!");
+        for(Customer.Status s: status) {
+            if(s == null) throw new IllegalArgumentException("status must not be null!");
+        }
+        IdBitmap selection = null;
+        if(ids != null) {
+            selection = new IdBitmap();
+            for(Long id: ids) {
+                if(id == null) throw new IllegalArgumentException("id must not be null!");
+                selection.add(id);
+            }
+        }
+        ArrayList<Customer> found = new ArrayList<Customer>();
+        statuses.forEach(status, selection, id -> findById(id).ifPresent(found::add));
+        return found;
     }
 
 
@@ -108,7 +706,7 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
         }
         ArrayList<Customer> foundCustomers = new ArrayList<Customer>();
         for(long id: ids) {
-            if(existsById(id)) foundCustomers.add(customers.get(id));
+            findById(id).ifPresent(foundCustomers::add);
         }
         return foundCustomers;
     }
@@ -120,7 +718,7 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
      * @return the number of entities.
      */
     public long count() {
-        return customers.size();
+        return size.get();
     }
 
 
@@ -132,7 +730,27 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
      */
     public void deleteById( Long id ) {
         if(id == null) throw new IllegalArgumentException("id must not be null!");
-        if(existsById(id)) customers.remove(id);
+        deleteById(id.longValue());
+    }
+
+
+    /**
+     * Deletes the entity with the given id, primitive variant without boxing.
+     *
+     * @param id id of entity.
+     */
+    public void deleteById( long id ) {
+        WriteAheadLog.Pending logged = null;
+        Stripe stripe = stripe(id);
+        stripe.lock.writeLock().lock();
+        try {
+            Indexed indexed = stripe.customers.indexed(id);
+            Customer removed = stripe.customers.remove(id);
+            if(removed != null) logged = removed(removed, indexed);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+        awaitDurable(logged);
     }
 
 
@@ -144,7 +762,17 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
      */
     public void delete( Customer entity ) {
         if(entity == null) throw new IllegalArgumentException("entity must not be null!");
-        if(customers.containsValue(entity)) customers.remove(entity.getId());
+        WriteAheadLog.Pending logged = null;
+        Stripe stripe = stripe(entity.getId());
+        stripe.lock.writeLock().lock();
+        try {
+            // remove only if this very entity is stored under its id
+            Indexed indexed = stripe.customers.indexed(entity.getId());
+            if(stripe.customers.remove(entity.getId(), entity)) logged = removed(entity, indexed);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+        awaitDurable(logged);
     }
 
 
@@ -187,6 +815,414 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
      * Deletes all entities managed by the repository.
      */
     public void deleteAll() {
-        customers.clear();
+        WriteAheadLog.Pending logged;
+        // lock all stripes in ascending order to clear atomically
+        for(Stripe stripe: stripes) {
+            stripe.lock.writeLock().lock();
+        }
+        try {
+            for(Stripe stripe: stripes) {
+                stripe.customers.forEach(c -> c.setListener(null));
+                stripe.customers.clear();
+                stripe.idIndex.clear();
+            }
+            size.set(0);
+            ids.reset();
+            names.clear();
+            contacts.clear();
+            statuses.clear();
+            changed(Change.Type.CLEAR, -1, null);
+            logged = log(WriteAheadLog.CLEAR, new byte[0]);
+        } finally {
+            for(Stripe stripe: stripes) {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+        awaitDurable(logged);
+    }
+
+
+    /**
+     * Loads entities into the empty repository in bulk, e.g. from a snapshot at startup.
+     * Entities are sorted by id, stripes are filled in parallel and indexes are built in
+     * key order, which is much faster than saving entities one by one. Changes are not
+     * logged.
+     *
+     * @param entities entities with distinct ids, must not contain {@literal null}.
+     * @throws IllegalStateException in case the repository is not empty.
+     * @throws IllegalArgumentException in case entities contain {@literal null} or duplicate ids.
+     */
+    void load( Collection<? extends Customer> entities ) {
+        load(entities.toArray(new Customer[0]));
+    }
+
+    /**
+     * Loads entities into the empty repository in bulk like {@link #load(Collection)},
+     * without copying them: the array is sorted by id in place.
+     * <p>
+     * Entities are bucketed by stripe with a counting sort, such that each of the parallel
+     * stripe tasks walks only the entities of its stripe, in id order: O(n) work in total
+     * plus O(n log n) for sorting, with O(n) extra space for the bucket order.
+     *
+     * @param entities entities with distinct ids, must not contain {@literal null}.
+     * @throws IllegalStateException in case the repository is not empty.
+     * @throws IllegalArgumentException in case entities contain {@literal null} or duplicate ids.
+     */
+    void load( Customer[] entities ) {
+        if(size.get() != 0) throw new IllegalStateException("repository must be empty!");
+        Customer[] sorted = entities;
+        for(Customer entity: sorted) {
+            if(entity == null) throw new IllegalArgumentException("Entities must not be null!");
+        }
+        Arrays.parallelSort(sorted, Comparator.comparingLong(Customer::getId));
+        for(int i = 1; i < sorted.length; i++) {
+            if(sorted[i].getId() == sorted[i - 1].getId()) throw new IllegalArgumentException("duplicate id " + sorted[i].getId() + "!");
+        }
+        // loaded entities are not logged as changes, consumers of earlier changes must resync
+        long version = modifications.incrementAndGet();
+        changes.reset(version);
+        // counting sort into per-stripe ranges [start[s], start[s + 1]) of order, ascending ids within each
+        int[] start = new int[STRIPES + 1];
+        for(Customer entity: sorted) {
+            start[stripeIndex(entity.getId()) + 1]++;
+        }
+        for(int s = 0; s < STRIPES; s++) {
+            start[s + 1] += start[s];
+        }
+        int[] order = new int[sorted.length];
+        int[] next = Arrays.copyOf(start, STRIPES);
+        for(int i = 0; i < sorted.length; i++) {
+            order[next[stripeIndex(sorted[i].getId())]++] = i;
+        }
+        IntStream.range(0, STRIPES).parallel().forEach(s -> {
+            Stripe stripe = stripes[s];
+            stripe.lock.writeLock().lock();
+            try {
+                for(int k = start[s]; k < start[s + 1]; k++) {
+                    Customer entity = sorted[order[k]];
+                    long id = entity.getId();
+                    Indexed indexed = Indexed.of(entity);
+                    stripe.customers.put(id, entity);
+                    stripe.customers.setVersion(id, version);
+                    stripe.customers.setIndexed(id, indexed);
+                    stripe.idIndex.add(id);
+                    statuses.add(s, id, indexed.status);
+                    for(String contact: indexed.contacts) {
+                        contacts.add(contact, id);
+                    }
+                    entity.setListener(listener);
+                }
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        });
+        size.addAndGet(sorted.length);
+        names.addAll(sorted);
+        restoreIds();
+    }
+
+
+    /**
+     * Continue generating ids after the ids of stored entities, e.g. after loading a snapshot
+     * or replaying a log: new ids are taken from the gaps between stored ids and from behind
+     * the largest stored id, such that no occupied id is probed.
+     */
+    void restoreIds() {
+        ArrayList<Customer> stored = new ArrayList<Customer>();
+        for(Stripe stripe: stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                stripe.customers.valuesInto(stored);
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        long[] sortedIds = stored.stream().mapToLong(Customer::getId).filter(id -> id >= 0).sorted().toArray();
+        ids.restore(sortedIds);
+    }
+
+
+    /**
+     * Attach log all following changes are recorded in. Changes made before, e.g. when
+     * replaying the log, are not recorded.
+     *
+     * @param log log changes are recorded in, null to stop logging.
+     */
+    void attachLog( WriteAheadLog log ) {
+        this.log = log;
+    }
+
+
+    /*
+        Private methods
+     */
+
+    // save entity under the next free candidate id, locking the stripe of one candidate at a time
+    private WriteAheadLog.Pending claimGeneratedId(Customer entity) {
+        while(true) {
+            long id = ids.next();
+            Stripe stripe = stripe(id);
+            stripe.lock.writeLock().lock();
+            try {
+                // candidate may have been taken by an entity saved with explicit id
+                if(stripe.customers.putIfAbsent(id, entity) == null) {
+                    entity.setId(id);
+                    return added(null, entity);
+                }
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // restore order of min-heap of cursors below index i
+    private static void siftDown(PageCursor[] heap, int n, int i) {
+        PageCursor cursor = heap[i];
+        while(2 * i + 1 < n) {
+            int child = 2 * i + 1;
+            if(child + 1 < n && heap[child + 1].head() < heap[child].head()) child++;
+            if(cursor.head() <= heap[child].head()) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = cursor;
+    }
+
+    // called under stripe write lock after entity was put under its id replacing previous
+    private WriteAheadLog.Pending added(Customer previous, Customer entity) {
+        Stripe stripe = stripe(entity.getId());
+        LongCustomerMap customers = stripe.customers;
+        if(previous == null) {
+            size.incrementAndGet();
+            stripe.idIndex.add(entity.getId());
+        } else {
+            // the slot still holds the values previous was indexed under
+            unindex(previous, customers.indexed(entity.getId()));
+        }
+        customers.setIndexed(entity.getId(), reindex(entity, null));
+        entity.setListener(listener);
+        customers.setVersion(entity.getId(), changed(Change.Type.SAVE, entity.getId(), entity));
+        return logSave(entity);
+    }
+
+    // called under stripe write lock after entity indexed under indexed was removed
+    private WriteAheadLog.Pending removed(Customer entity, Indexed indexed) {
+        size.decrementAndGet();
+        ids.release(entity.getId());
+        stripe(entity.getId()).idIndex.remove(entity.getId());
+        unindex(entity, indexed);
+        changed(Change.Type.DELETE, entity.getId(), null);
+        return log(WriteAheadLog.DELETE, ByteBuffer.allocate(8).putLong(entity.getId()).array());
+    }
+
+    // called under stripe write lock(s) after a change was applied, counts and records it
+    private long changed(Change.Type type, long id, Customer entity) {
+        long seq = modifications.incrementAndGet();
+        changes.add(new Change(seq, type, id, entity));
+        return seq;
+    }
+
+    // called under stripe write lock, logs current state of entity
+    private WriteAheadLog.Pending logSave(Customer entity) {
+        return log == null ? null : log(WriteAheadLog.SAVE, CustomerCodec.encode(entity));
+    }
+
+    // called under stripe write lock, returns pending record or null when not logging
+    private WriteAheadLog.Pending log(byte type, byte[] payload) {
+        WriteAheadLog l = log;
+        return l == null ? null : l.append(type, payload);
+    }
+
+    // called after releasing stripe lock
+    private static void awaitDurable(WriteAheadLog.Pending logged) {
+        if(logged != null) logged.await();
+    }
+
+    // remove entity from secondary indexes by the values it was indexed under
+    private void unindex(Customer entity, Indexed indexed) {
+        if(entity.getListener() == listener) entity.setListener(null);
+        if(indexed != null) index(entity, indexed, null);
+    }
+
+    // called under stripe write lock, index entity under its current values replacing
+    // entries for the values it was indexed under (null if not indexed), returns new values
+    private Indexed reindex(Customer entity, Indexed indexed) {
+        Indexed current = Indexed.of(entity);
+        index(entity, indexed, current);
+        return current;
+    }
+
+    // move index entries of entity from old to new values, null for no entries
+    private void index(Customer entity, Indexed from, Indexed to) {
+        long id = entity.getId();
+        boolean renamed = from == null || to == null
+                || !Objects.equals(from.firstName, to.firstName) || !Objects.equals(from.lastName, to.lastName);
+        if(renamed) {
+            if(from != null) names.remove(entity, from.firstName, from.lastName);
+            if(to != null) names.add(entity, to.firstName, to.lastName);
+        }
+        if(from != null) {
+            for(String contact: from.contacts) {
+                if(to == null || !to.hasContact(contact)) contacts.remove(contact, id);
+            }
+        }
+        if(to != null) {
+            for(String contact: to.contacts) {
+                if(from == null || !from.hasContact(contact)) contacts.add(contact, id);
+            }
+        }
+        statuses.move(stripeIndex(id), id, from != null ? from.status : null, to != null ? to.status : null);
+    }
+
+    /**
+     * Listener on stored customers, updates indexes under the customer's stripe lock.
+     * Setters change a customer before notifying, the old values passed may be stale
+     * when setters race; indexes are moved from the values stored with the customer's
+     * slot to its current values instead.
+     */
+    private final class CustomerListener implements Customer.Listener {
+
+        @Override
+        public void nameChanged( Customer customer, String oldFirstName, String oldLastName ) {
+            update(customer);
+        }
+
+        @Override
+        public void contactAdded( Customer customer, String contact ) {
+            update(customer);
+        }
+
+        @Override
+        public void contactRemoved( Customer customer, String contact ) {
+            update(customer);
+        }
+
+        @Override
+        public void statusChanged( Customer customer, Customer.Status oldStatus ) {
+            update(customer);
+        }
+
+        // reindex customer under stripe lock if it is still stored, assign a new
+        // version, which drops its cached serialized form, and log the changed customer
+        private void update( Customer customer ) {
+            WriteAheadLog.Pending logged = null;
+            Stripe stripe = stripe(customer.getId());
+            stripe.lock.writeLock().lock();
+            try {
+                if(stripe.customers.get(customer.getId()) == customer) {
+                    stripe.customers.setIndexed(customer.getId(), reindex(customer, stripe.customers.indexed(customer.getId())));
+                    stripe.customers.setVersion(customer.getId(), changed(Change.Type.SAVE, customer.getId(), customer));
+                    logged = logSave(customer);
+                }
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+            awaitDurable(logged);
+        }
+    }
+
+    /**
+     * Position of {@link #findPage(long, int)} in one stripe: a chunk of the stripe's next
+     * ids and their customers, copied under the stripe's read lock.
+     */
+    private static final class PageCursor {
+        private final Stripe stripe;
+        private final int chunk;
+        // id after which the next chunk is copied
+        private long after;
+        private long[] ids;
+        private Customer[] customers;
+        // number of ids in chunk and index of the next one
+        private int count;
+        private int next;
+        // no ids after the last chunk when it was not full
+        private boolean exhausted = false;
+
+        PageCursor(Stripe stripe, long after, int chunk) {
+            this.stripe = stripe;
+            this.after = after;
+            this.chunk = chunk;
+        }
+
+        long head() {
+            return ids[next];
+        }
+
+        // copy next chunk, returns false if the stripe has no more ids
+        boolean fill() {
+            if(exhausted) return false;
+            stripe.lock.readLock().lock();
+            try {
+                if(ids == null) {
+                    int size = (int) Math.min(chunk, stripe.idIndex.cardinality());
+                    if(size == 0) return false;
+                    ids = new long[size];
+                    customers = new Customer[size];
+                }
+                count = stripe.idIndex.copyAfter(after, ids);
+                for(int i = 0; i < count; i++) {
+                    customers[i] = stripe.customers.get(ids[i]);
+                }
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+            next = 0;
+            exhausted = count < ids.length;
+            if(count > 0) after = ids[count - 1];
+            return count > 0;
+        }
+    }
+
+    /**
+     * Iterator that copies customers of one stripe at a time under the stripe's read lock.
+     */
+    private final class StripeIterator implements Iterator<Customer> {
+        private int nextStripe = 0;
+        private Iterator<Customer> current = Collections.emptyIterator();
+
+        @Override
+        public boolean hasNext() {
+            while(!current.hasNext() && nextStripe < STRIPES) {
+                Stripe stripe = stripes[nextStripe++];
+                stripe.lock.readLock().lock();
+                try {
+                    ArrayList<Customer> snapshot = new ArrayList<Customer>(stripe.customers.size());
+                    stripe.customers.valuesInto(snapshot);
+                    current = snapshot.iterator();
+                } finally {
+                    stripe.lock.readLock().unlock();
+                }
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public Customer next() {
+            if(!hasNext()) throw new NoSuchElementException();
+            return current.next();
+        }
+    }
+
+    // write-lock stripes of bit set in ascending order, which avoids deadlocks between batches
+    private void lockStripes(long locked) {
+        for(int i = 0; i < STRIPES; i++) {
+            if((locked & (1L << i)) != 0) stripes[i].lock.writeLock().lock();
+        }
+    }
+
+    private void unlockStripes(long locked) {
+        for(int i = STRIPES - 1; i >= 0; i--) {
+            if((locked & (1L << i)) != 0) stripes[i].lock.writeLock().unlock();
+        }
+    }
+
+    private Stripe stripe(long id) {
+        return stripes[stripeIndex(id)];
+    }
+
+    private static int stripeIndex(long id) {
+        // spread id bits such that consecutive ids land in different stripes
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (STRIPES - 1);
     }
 }
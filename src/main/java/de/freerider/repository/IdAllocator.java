@@ -0,0 +1,130 @@
+package de.freerider.repository;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Source of id candidates for new customers: ids released by deletions are
+ * handed out again first (free-list), otherwise a monotonic sequence is
+ * advanced. Both operations take constant time.
+ * <p>
+ * The free-list is a stack of id ranges: a released id is a range of one, the gaps
+ * between restored ids (see {@link #restore(long[])}) are ranges of any length, so
+ * a repository restored with sparse ids does not hold one entry per free id.
+ * <p>
+ * Candidates are not guaranteed to be free, an id may have been taken by an
+ * entity saved with an explicit id in the meantime. {@link CustomerRepository}
+ * therefore claims candidates under its stripe lock and asks for the next
+ * candidate when one is occupied. Since the sequence only moves forward, every
+ * explicitly used id is skipped at most once.
+ */
+final class IdAllocator {
+    // initial capacity of free-list in ranges
+    private static final int INITIAL_CAPACITY = 64;
+    // sequence after Long.MAX_VALUE was handed out, any negative sequence is exhausted
+    private static final long EXHAUSTED = Long.MIN_VALUE;
+    // next id of the sequence that has never been handed out, negative when exhausted
+    private final AtomicLong sequence = new AtomicLong();
+    // stack of ranges of released ids below sequence, first and last id of range i at 2i and 2i+1
+    private long[] free = new long[2 * INITIAL_CAPACITY];
+    // number of ranges on free-list
+    private int freeCount;
+    // guards free-list, held only for a push or pop
+    private final ReentrantLock freeLock = new ReentrantLock();
+
+    /**
+     * Return next id candidate, prefer released ids over advancing the sequence.
+     *
+     * @return id candidate {@code >= 0}.
+     * @throws IllegalStateException when no released ids are left and the sequence
+     *           has handed out {@code Long.MAX_VALUE}.
+     */
+    long next() {
+        if(freeCount > 0) {	// racy pre-check avoids lock when free-list is empty
+            freeLock.lock();
+            try {
+                if(freeCount > 0) {
+                    int top = 2 * (freeCount - 1);
+                    long id = free[top];
+                    if(id == free[top + 1]) freeCount--;
+                    else free[top] = id + 1;
+                    return id;
+                }
+            } finally {
+                freeLock.unlock();
+            }
+        }
+        long id = sequence.getAndIncrement();	// wraps to EXHAUSTED after Long.MAX_VALUE
+        if(id < 0) {
+            sequence.set(EXHAUSTED);	// keep failing calls from counting back up to 0
+            throw new IllegalStateException("ids exhausted!");
+        }
+        return id;
+    }
+
+    /**
+     * Make id available again after the entity stored under id was deleted.
+     * Ids the sequence has not reached yet are not recorded, they will be
+     * handed out by the sequence anyway.
+     *
+     * @param id id of deleted entity.
+     */
+    void release(long id) {
+        long next = sequence.get();
+        if(id < 0 || (next >= 0 && id >= next)) return;
+        freeLock.lock();
+        try {
+            push(id, id);
+        } finally {
+            freeLock.unlock();
+        }
+    }
+
+    /**
+     * Continue after restored ids: the sequence restarts behind the largest id, the
+     * gaps between ids become free ranges handed out lowest first. The sequence is
+     * exhausted if the largest id is {@code Long.MAX_VALUE}.
+     *
+     * @param sortedIds ids of stored entities in ascending order.
+     */
+    void restore(long[] sortedIds) {
+        freeLock.lock();
+        try {
+            free = new long[2 * INITIAL_CAPACITY];
+            freeCount = 0;
+            long largest = sortedIds.length == 0 ? -1 : sortedIds[sortedIds.length - 1];
+            long next = largest == Long.MAX_VALUE ? EXHAUSTED : largest + 1;
+            // push gaps from the top, the lowest gap ends up on top of the stack
+            for(int i = sortedIds.length - 1; i >= 0; i--) {
+                long below = i == 0 ? 0 : sortedIds[i - 1] + 1;
+                if(below < sortedIds[i]) push(below, sortedIds[i] - 1);
+            }
+            sequence.set(next);
+        } finally {
+            freeLock.unlock();
+        }
+    }
+
+    /**
+     * Restart from id 0 with an empty free-list, used when the repository is cleared.
+     */
+    void reset() {
+        restore(new long[0]);
+    }
+
+
+    /*
+        Private methods
+     */
+
+    // called under freeLock
+    private void push(long first, long last) {
+        if(2 * freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length << 1);
+        }
+        free[2 * freeCount] = first;
+        free[2 * freeCount + 1] = last;
+        freeCount++;
+    }
+}
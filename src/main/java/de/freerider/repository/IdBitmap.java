@@ -0,0 +1,360 @@
+package de.freerider.repository;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Compressed bitmap over {@code long} ids, organized like a Roaring bitmap: ids are
+ * split into chunks of 2^16 by their high bits, each chunk stores the low 16 bits
+ * in a container. Sparse chunks use a sorted {@code char[]} array (2 bytes per id),
+ * chunks with more than 4096 ids switch to a plain bitset of 8 KB. Iteration costs
+ * time proportional to the number of ids visited, intersections and unions operate
+ * chunk by chunk.
+ * <p>
+ * Not thread-safe, callers synchronize access (see {@link StatusIndex} and the
+ * per-stripe id index of {@link CustomerRepository}).
+ */
+final class IdBitmap {
+    // array containers larger than this are converted to bitset containers
+    private static final int ARRAY_LIMIT = 4096;
+    // containers by high bits of ids, ordered for ascending iteration
+    private final TreeMap<Long, Container> chunks = new TreeMap<Long, Container>();
+    // number of ids in bitmap
+    private long cardinality;
+
+    /**
+     * Add id to bitmap.
+     *
+     * @param id id to add.
+     * @return true if id was not yet contained.
+     */
+    boolean add(long id) {
+        Long high = id >> 16;
+        Container c = chunks.get(high);
+        if(c == null) {
+            c = new ArrayContainer();
+            chunks.put(high, c);
+        }
+        int before = c.cardinality();
+        Container updated = c.add((char) id);
+        if(updated != c) chunks.put(high, updated);
+        boolean added = updated.cardinality() > before;
+        if(added) cardinality++;
+        return added;
+    }
+
+    /**
+     * Remove id from bitmap.
+     *
+     * @param id id to remove.
+     * @return true if id was contained.
+     */
+    boolean remove(long id) {
+        Long high = id >> 16;
+        Container c = chunks.get(high);
+        if(c == null || !c.remove((char) id)) return false;
+        if(c.cardinality() == 0) chunks.remove(high);
+        cardinality--;
+        return true;
+    }
+
+    boolean contains(long id) {
+        Container c = chunks.get(id >> 16);
+        return c != null && c.contains((char) id);
+    }
+
+    long cardinality() {
+        return cardinality;
+    }
+
+    void clear() {
+        chunks.clear();
+        cardinality = 0;
+    }
+
+    /**
+     * Perform action for each id in ascending order.
+     *
+     * @param action action performed with id.
+     */
+    void forEach(LongConsumer action) {
+        for(Map.Entry<Long, Container> e: chunks.entrySet()) {
+            e.getValue().forEach(e.getKey() << 16, action);
+        }
+    }
+
+    /**
+     * Copy ids greater than after in ascending order, at most as many as fit into the
+     * target array. Seeks to the chunk of after, costs {@code O(log chunks + copied)}
+     * for array containers.
+     *
+     * @param after ids up to and including after are skipped.
+     * @param into array ids are copied to starting at index 0.
+     * @return number of ids copied.
+     */
+    int copyAfter(long after, long[] into) {
+        if(after == Long.MAX_VALUE) return 0;
+        long first = after + 1;
+        int n = 0;
+        for(Map.Entry<Long, Container> e: chunks.tailMap(first >> 16, true).entrySet()) {
+            if(n == into.length) break;
+            int from = e.getKey() == first >> 16 ? (int) (first & 0xFFFF) : 0;
+            n = e.getValue().copyFrom(e.getKey() << 16, from, into, n);
+        }
+        return n;
+    }
+
+    /**
+     * Return new bitmap with ids contained in both bitmaps.
+     *
+     * @param other bitmap to intersect with.
+     * @return intersection of both bitmaps.
+     */
+    IdBitmap and(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        // iterate the bitmap with fewer chunks, probe the other
+        IdBitmap small = chunks.size() <= other.chunks.size() ? this : other;
+        IdBitmap large = small == this ? other : this;
+        for(Map.Entry<Long, Container> e: small.chunks.entrySet()) {
+            Container c = large.chunks.get(e.getKey());
+            if(c != null) {
+                Container and = e.getValue().and(c);
+                if(and.cardinality() > 0) {
+                    result.chunks.put(e.getKey(), and);
+                    result.cardinality += and.cardinality();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return new bitmap with ids contained in any of both bitmaps.
+     *
+     * @param other bitmap to unite with.
+     * @return union of both bitmaps.
+     */
+    IdBitmap or(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        for(Map.Entry<Long, Container> e: chunks.entrySet()) {
+            result.chunks.put(e.getKey(), e.getValue().copy());
+        }
+        for(Map.Entry<Long, Container> e: other.chunks.entrySet()) {
+            Container c = result.chunks.get(e.getKey());
+            result.chunks.put(e.getKey(), c == null ? e.getValue().copy() : c.or(e.getValue()));
+        }
+        for(Container c: result.chunks.values()) {
+            result.cardinality += c.cardinality();
+        }
+        return result;
+    }
+
+
+    /*
+        Containers for the low 16 bits of ids of one chunk
+     */
+
+    private interface Container {
+        int cardinality();
+        boolean contains(char low);
+        // returns this or a converted container
+        Container add(char low);
+        boolean remove(char low);
+        void forEach(long base, LongConsumer action);
+        // copies ids with low bits >= from to into[n..], returns new n
+        int copyFrom(long base, int from, long[] into, int n);
+        Container and(Container other);
+        Container or(Container other);
+        Container copy();
+    }
+
+    private static final class ArrayContainer implements Container {
+        private char[] values = new char[4];
+        private int size;
+
+        @Override
+        public int cardinality() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        @Override
+        public Container add(char low) {
+            int i = Arrays.binarySearch(values, 0, size, low);
+            if(i >= 0) return this;
+            if(size == ARRAY_LIMIT) {
+                BitmapContainer bitmap = toBitmap();
+                bitmap.add(low);
+                return bitmap;
+            }
+            i = -i - 1;
+            if(size == values.length) values = Arrays.copyOf(values, Math.min(size << 1, ARRAY_LIMIT));
+            System.arraycopy(values, i, values, i + 1, size - i);
+            values[i] = low;
+            size++;
+            return this;
+        }
+
+        @Override
+        public boolean remove(char low) {
+            int i = Arrays.binarySearch(values, 0, size, low);
+            if(i < 0) return false;
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+            return true;
+        }
+
+        @Override
+        public void forEach(long base, LongConsumer action) {
+            for(int i = 0; i < size; i++) {
+                action.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        public int copyFrom(long base, int from, long[] into, int n) {
+            int i = Arrays.binarySearch(values, 0, size, (char) from);
+            for(i = i < 0 ? -i - 1 : i; i < size && n < into.length; i++) {
+                into[n++] = base | values[i];
+            }
+            return n;
+        }
+
+        @Override
+        public Container and(Container other) {
+            ArrayContainer result = new ArrayContainer();
+            result.values = new char[Math.max(size, 1)];
+            for(int i = 0; i < size; i++) {
+                if(other.contains(values[i])) result.values[result.size++] = values[i];
+            }
+            return result;
+        }
+
+        @Override
+        public Container or(Container other) {
+            Container result = other.copy();
+            for(int i = 0; i < size; i++) {
+                result = result.add(values[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public Container copy() {
+            ArrayContainer copy = new ArrayContainer();
+            copy.values = Arrays.copyOf(values, Math.max(size, 1));
+            copy.size = size;
+            return copy;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for(int i = 0; i < size; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer implements Container {
+        private final long[] words = new long[1 << 10];
+        private int cardinality;
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public Container add(char low) {
+            long bit = 1L << low;
+            if((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean remove(char low) {
+            long bit = 1L << low;
+            if((words[low >>> 6] & bit) == 0) return false;
+            words[low >>> 6] &= ~bit;
+            cardinality--;
+            return true;
+        }
+
+        @Override
+        public void forEach(long base, LongConsumer action) {
+            for(int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while(word != 0) {
+                    action.accept(base | ((long) w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        public int copyFrom(long base, int from, long[] into, int n) {
+            int w = from >>> 6;
+            long word = words[w] & (-1L << from);	// shift distance is taken mod 64
+            while(true) {
+                while(word != 0) {
+                    if(n == into.length) return n;
+                    into[n++] = base | ((long) w << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+                if(++w == words.length) return n;
+                word = words[w];
+            }
+        }
+
+        @Override
+        public Container and(Container other) {
+            if(!(other instanceof BitmapContainer)) return other.and(this);
+            BitmapContainer result = new BitmapContainer();
+            long[] o = ((BitmapContainer) other).words;
+            for(int w = 0; w < words.length; w++) {
+                result.words[w] = words[w] & o[w];
+                result.cardinality += Long.bitCount(result.words[w]);
+            }
+            return result;
+        }
+
+        @Override
+        public Container or(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if(other instanceof BitmapContainer) {
+                long[] o = ((BitmapContainer) other).words;
+                result.cardinality = 0;
+                for(int w = 0; w < words.length; w++) {
+                    result.words[w] |= o[w];
+                    result.cardinality += Long.bitCount(result.words[w]);
+                }
+            } else {
+                other.forEach(0, low -> result.add((char) low));
+            }
+            return result;
+        }
+
+        @Override
+        public Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, words.length);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+    }
+}
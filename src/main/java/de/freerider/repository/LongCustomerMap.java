@@ -0,0 +1,320 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Open-addressing hash table mapping primitive {@code long} ids to customers.
+ * Keys and values are kept in two parallel arrays, which avoids boxing ids into
+ * {@code Long} and the per-entry node objects of {@link java.util.HashMap}.
+ * Collisions are resolved by linear probing, removals shift following entries
+ * back so that no tombstones are needed.
+ * <p>
+ * Further parallel arrays hold the version of each customer, cache its
+ * serialized form, which is dropped whenever the slot's customer is replaced,
+ * removed or gets a new version, and hold the attribute values the customer is
+ * currently indexed under ({@link CustomerRepository.Indexed}).
+ * <p>
+ * Not thread-safe, callers synchronize access (see {@link CustomerRepository}).
+ * Only {@link #cached(long)} and {@link #cache(long, CustomerRepository.Serialized)}
+ * may be called concurrently by readers holding a shared lock.
+ */
+final class LongCustomerMap {
+    // initial number of slots, must be a power of two
+    private static final int INITIAL_CAPACITY = 16;
+    // table grows when filled beyond 3/4
+    private static final int LOAD_FACTOR_PERCENT = 75;
+    // release/acquire access to serialized, readers cache concurrently under a shared lock
+    private static final VarHandle SERIALIZED = MethodHandles.arrayElementVarHandle(CustomerRepository.Serialized[].class);
+    // ids of occupied slots
+    private long[] keys;
+    // customers of occupied slots, null marks a free slot
+    private Customer[] values;
+    // versions of customers of occupied slots, 0 when not set
+    private long[] versions;
+    // serialized customers of occupied slots, null when not cached
+    private CustomerRepository.Serialized[] serialized;
+    // attribute values customers of occupied slots are indexed under, kept when a customer is replaced
+    private CustomerRepository.Indexed[] indexed;
+    // number of occupied slots
+    private int size;
+    // size at which the table grows
+    private int threshold;
+
+    LongCustomerMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(long key) {
+        return values[indexOf(key)] != null;
+    }
+
+    Customer get(long key) {
+        return values[indexOf(key)];
+    }
+
+    /**
+     * Put customer under key.
+     *
+     * @param key id of customer.
+     * @param value customer, must not be null.
+     * @return previous customer stored under key or null.
+     */
+    Customer put(long key, Customer value) {
+        int i = indexOf(key);
+        Customer previous = values[i];
+        if(previous == null) {
+            if(size >= threshold) {
+                resize(values.length << 1);
+                i = indexOf(key);
+            }
+            keys[i] = key;
+            indexed[i] = null;
+            size++;
+        }
+        values[i] = value;
+        versions[i] = 0;
+        serialized[i] = null;
+        return previous;
+    }
+
+    /**
+     * Return attribute values the customer stored under key is indexed under.
+     *
+     * @param key id of customer.
+     * @return indexed values, null if not set or key is not present.
+     */
+    CustomerRepository.Indexed indexed(long key) {
+        return indexed[indexOf(key)];
+    }
+
+    /**
+     * Set attribute values the customer stored under key is indexed under, ignored if
+     * key is not present.
+     *
+     * @param key id of customer.
+     * @param indexed indexed values.
+     */
+    void setIndexed(long key, CustomerRepository.Indexed indexed) {
+        int i = indexOf(key);
+        if(values[i] != null) this.indexed[i] = indexed;
+    }
+
+    /**
+     * Put customer under key unless a customer is stored under key, with one probe.
+     *
+     * @param key id of customer.
+     * @param value customer, must not be null.
+     * @return customer stored under key or null if value was put.
+     */
+    Customer putIfAbsent(long key, Customer value) {
+        int i = indexOf(key);
+        if(values[i] != null) return values[i];
+        if(size >= threshold) {
+            resize(values.length << 1);
+            i = indexOf(key);
+        }
+        keys[i] = key;
+        values[i] = value;
+        versions[i] = 0;
+        serialized[i] = null;
+        indexed[i] = null;
+        size++;
+        return null;
+    }
+
+    /**
+     * Return version of customer stored under key.
+     *
+     * @param key id of customer.
+     * @return version of customer or 0 if not set or key is not present.
+     */
+    long version(long key) {
+        return versions[indexOf(key)];
+    }
+
+    /**
+     * Set version of customer stored under key after it was put or changed, which drops
+     * its cached serialized form. Ignored if key is not present.
+     *
+     * @param key id of customer.
+     * @param version new version of customer.
+     */
+    void setVersion(long key, long version) {
+        int i = indexOf(key);
+        if(values[i] != null) {
+            versions[i] = version;
+            serialized[i] = null;
+        }
+    }
+
+    /**
+     * Return cached serialized form of customer stored under key.
+     *
+     * @param key id of customer.
+     * @return serialized customer or null if not cached or key is not present.
+     */
+    CustomerRepository.Serialized cached(long key) {
+        return (CustomerRepository.Serialized) SERIALIZED.getAcquire(serialized, indexOf(key));
+    }
+
+    /**
+     * Cache serialized form of customer stored under key, ignored if key is not present.
+     *
+     * @param key id of customer.
+     * @param serialized serialized customer.
+     */
+    void cache(long key, CustomerRepository.Serialized serialized) {
+        int i = indexOf(key);
+        if(values[i] != null) SERIALIZED.setRelease(this.serialized, i, serialized);
+    }
+
+    /**
+     * Remove customer stored under key.
+     *
+     * @param key id of customer.
+     * @return removed customer or null if key was not present.
+     */
+    Customer remove(long key) {
+        int i = indexOf(key);
+        Customer previous = values[i];
+        if(previous != null) {
+            removeAt(i);
+        }
+        return previous;
+    }
+
+    /**
+     * Remove customer stored under key only if it is the given instance.
+     *
+     * @param key id of customer.
+     * @param value expected customer instance.
+     * @return true if the customer was removed.
+     */
+    boolean remove(long key, Customer value) {
+        int i = indexOf(key);
+        if(values[i] != null && values[i] == value) {
+            removeAt(i);
+            return true;
+        }
+        return false;
+    }
+
+    void clear() {
+        if(values.length > INITIAL_CAPACITY) {
+            allocate(INITIAL_CAPACITY);
+        } else {
+            Arrays.fill(values, null);
+            Arrays.fill(versions, 0);
+            Arrays.fill(serialized, null);
+            Arrays.fill(indexed, null);
+        }
+        size = 0;
+    }
+
+    /**
+     * Add all customers to the given collection.
+     *
+     * @param target collection customers are added to.
+     */
+    void valuesInto(Collection<? super Customer> target) {
+        for(Customer value: values) {
+            if(value != null) target.add(value);
+        }
+    }
+
+    /**
+     * Perform action for each customer.
+     *
+     * @param action action performed.
+     */
+    void forEach(Consumer<? super Customer> action) {
+        for(Customer value: values) {
+            if(value != null) action.accept(value);
+        }
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Customer[capacity];
+        versions = new long[capacity];
+        serialized = new CustomerRepository.Serialized[capacity];
+        indexed = new CustomerRepository.Indexed[capacity];
+        threshold = (int) ((long) capacity * LOAD_FACTOR_PERCENT / 100);
+    }
+
+    // slot of key or the free slot where key would be inserted
+    private int indexOf(long key) {
+        int mask = values.length - 1;
+        int i = hash(key) & mask;
+        while(values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void removeAt(int i) {
+        // shift back entries of the probe sequence following the removed slot
+        int mask = values.length - 1;
+        int free = i;
+        int j = (i + 1) & mask;
+        while(values[j] != null) {
+            int home = hash(keys[j]) & mask;
+            // move entry j into free slot unless its home lies cyclically in (free, j]
+            if(((j - home) & mask) >= ((j - free) & mask)) {
+                keys[free] = keys[j];
+                values[free] = values[j];
+                versions[free] = versions[j];
+                serialized[free] = serialized[j];
+                indexed[free] = indexed[j];
+                free = j;
+            }
+            j = (j + 1) & mask;
+        }
+        values[free] = null;
+        versions[free] = 0;
+        serialized[free] = null;
+        indexed[free] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Customer[] oldValues = values;
+        long[] oldVersions = versions;
+        CustomerRepository.Serialized[] oldSerialized = serialized;
+        CustomerRepository.Indexed[] oldIndexed = indexed;
+        allocate(capacity);
+        for(int i = 0; i < oldValues.length; i++) {
+            if(oldValues[i] != null) {
+                int j = indexOf(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+                versions[j] = oldVersions[i];
+                serialized[j] = oldSerialized[i];
+                indexed[j] = oldIndexed[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        // murmur3 finalizer, spreads sequential ids over the table
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return (int) (key ^ (key >>> 33));
+    }
+}
@@ -0,0 +1,143 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * Sorted secondary index over last- and first names of customers. Each customer
+ * is indexed under its normalized (trimmed, lower case) lastName and firstName,
+ * entries are ordered by name and id. A prefix lookup seeks to the first entry
+ * {@code >= prefix} and scans matching entries only, which costs
+ * {@code O(log n + matches)}.
+ * <p>
+ * Thread-safe, entries of one customer are updated under the customer's stripe
+ * lock held by {@link CustomerRepository}.
+ */
+final class NameIndex {
+    // index entries ordered by name, then id
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<Entry>();
+
+    /**
+     * Index entry, compares by name and id only.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        final String name;
+        final long id;
+        final Customer customer;
+
+        Entry(String name, long id, Customer customer) {
+            this.name = name;
+            this.id = id;
+            this.customer = customer;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int c = name.compareTo(other.name);
+            return c != 0 ? c : Long.compare(id, other.id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry && compareTo((Entry) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + Long.hashCode(id);
+        }
+    }
+
+    /**
+     * Add index entries for customer under the given names.
+     *
+     * @param customer customer to index.
+     * @param firstName firstName the customer is indexed under.
+     * @param lastName lastName the customer is indexed under.
+     */
+    void add(Customer customer, String firstName, String lastName) {
+        add(customer, firstName);
+        add(customer, lastName);
+    }
+
+    /**
+     * Add index entries for many customers at once. Entries are created and sorted in
+     * parallel before they are inserted, inserting in name order keeps the skip list nodes
+     * on the search path in cache and is much faster than inserting in random order.
+     *
+     * @param customers customers to index.
+     */
+    void addAll(Customer[] customers) {
+        Entry[] sorted = Arrays.stream(customers).parallel()
+                .flatMap(customer -> Stream.of(customer.getFirstName(), customer.getLastName())
+                        .map(NameIndex::normalize)
+                        .filter(n -> n.length() > 0)
+                        .map(n -> new Entry(n, customer.getId(), customer)))
+                .toArray(Entry[]::new);
+        Arrays.parallelSort(sorted);
+        Arrays.stream(sorted).parallel().forEach(entries::add);	// contiguous ranges per thread
+    }
+
+    /**
+     * Remove index entries of customer for the given names.
+     *
+     * @param customer indexed customer.
+     * @param firstName firstName the customer was indexed under.
+     * @param lastName lastName the customer was indexed under.
+     */
+    void remove(Customer customer, String firstName, String lastName) {
+        remove(customer, firstName);
+        remove(customer, lastName);
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Find customers whose last- or firstName starts with prefix (case-insensitive),
+     * ordered by matching name.
+     *
+     * @param prefix name prefix.
+     * @param limit maximum number of customers returned.
+     * @return customers with matching names, each customer at most once.
+     */
+    List<Customer> findByPrefix(String prefix, int limit) {
+        String p = normalize(prefix);
+        List<Customer> found = new ArrayList<Customer>();
+        Set<Long> seen = new HashSet<Long>();
+        for(Entry entry: entries.tailSet(new Entry(p, Long.MIN_VALUE, null))) {
+            if(found.size() >= limit || !entry.name.startsWith(p)) break;
+            // customers with matching first- and lastName are returned once
+            if(seen.add(entry.id)) found.add(entry.customer);
+        }
+        return found;
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private void add(Customer customer, String name) {
+        String n = normalize(name);
+        if(n.length() > 0) entries.add(new Entry(n, customer.getId(), customer));
+    }
+
+    private void remove(Customer customer, String name) {
+        String n = normalize(name);
+        if(n.length() > 0) entries.remove(new Entry(n, customer.getId(), null));
+    }
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,178 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persists the CustomerRepository in snapshots and a write-ahead log on local disk. At
+ * startup, the newest snapshot is loaded and log records after it are replayed before
+ * the log is attached to record further changes. Snapshots are taken periodically and
+ * at shutdown, log files covered by a snapshot are deleted. Persistence is configured
+ * in application.properties:
+ * <pre>{@code
+ * app.repository.data-dir                      - directory of data files, no persistence when empty (default)
+ * app.repository.wal.durability                - fsync, group or async
+ * app.repository.wal.async-force-millis        - interval of forcing async writes to disk
+ * app.repository.snapshot.interval-seconds     - interval of snapshots, 0 for snapshots at shutdown only
+ * }</pre>
+ */
+@Component
+class RepositoryPersistence {
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Value("${app.repository.data-dir:}")
+    private String dataDir;
+
+    @Value("${app.repository.wal.durability:group}")
+    private String durability;
+
+    @Value("${app.repository.wal.async-force-millis:1000}")
+    private long asyncForceMillis;
+
+    @Value("${app.repository.snapshot.interval-seconds:300}")
+    private long snapshotIntervalSeconds;
+
+    private Path snapshotDir;
+
+    private WriteAheadLog log = null;
+
+    // takes periodic snapshots, null when disabled
+    private ScheduledExecutorService scheduler = null;
+
+    // serializes snapshots and closing, a lock rather than synchronized so that virtual
+    // threads closing the application (e.g. GET /server/stop) do not pin their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // log sequence number of last snapshot, guarded by lock
+    private long snapshotSeq = 0;
+
+    /**
+     * Load newest snapshot, replay log after it into repository and attach log to the
+     * repository.
+     *
+     * @throws IOException when snapshot or log cannot be read or opened.
+     */
+    @PostConstruct
+    void open() throws IOException {
+        if(dataDir == null || dataDir.trim().length() == 0) return;
+        Path dir = Paths.get(dataDir.trim());
+        snapshotDir = dir.resolve("snapshot");
+        long started = System.currentTimeMillis();
+        // segments are decoded straight into one presized array the repository sorts in place
+        Customer[][] customers = { new Customer[0] };
+        snapshotSeq = Snapshot.loadInto(snapshotDir, count -> customers[0] = new Customer[count]);
+        customerRepository.load(customers[0]);
+        long loaded = customerRepository.count();
+        long snapshotMillis = System.currentTimeMillis() - started;
+        log = WriteAheadLog.open(dir.resolve("wal"),
+                WriteAheadLog.Durability.valueOf(durability.trim().toUpperCase(Locale.ROOT)),
+                asyncForceMillis,
+                snapshotSeq,
+                new WriteAheadLog.Replay() {
+                    @Override
+                    public void save(long seq, Customer customer) {
+                        customerRepository.save(customer);
+                    }
+
+                    @Override
+                    public void delete(long seq, long id) {
+                        customerRepository.deleteById(id);
+                    }
+
+                    @Override
+                    public void clear(long seq) {
+                        customerRepository.deleteAll();
+                    }
+                });
+        // replayed saves and deletes do not advance the id sequence
+        customerRepository.restoreIds();
+        customerRepository.attachLog(log);
+        System.out.println("repository<Customer> restored " + customerRepository.count() + " entries from "
+                + dir + " in " + (System.currentTimeMillis() - started) + " ms (snapshot: " + loaded + " entries in "
+                + snapshotMillis + " ms), durability: " + log.durability()
+                + ", JVM uptime: " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+        if(snapshotIntervalSeconds > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "repository-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    snapshot();
+                } catch(IOException | RuntimeException e) {
+                    System.err.println("repository<Customer> snapshot failed: " + e);
+                }
+            }, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Take snapshot of repository unless nothing changed since the last one, then
+     * delete log files covered by the snapshot.
+     *
+     * @throws IOException when writing the snapshot fails.
+     */
+    void snapshot() throws IOException {
+        lock.lock();
+        try {
+            if(log == null || log.lastSeq() == snapshotSeq) return;
+            long started = System.currentTimeMillis();
+            List<Path> covered = log.roll();
+            long seq = log.lastSeq();
+            Iterable<Customer> customers = customerRepository.findAll();
+            Path file = Snapshot.write(snapshotDir, seq, customers != null ? customers : List.of(), Snapshot.SEGMENT_SIZE);
+            // the snapshot is durable, including its directory entry, before covered logs are deleted
+            for(Path rolled: covered) {
+                Files.deleteIfExists(rolled);
+            }
+            snapshotSeq = seq;
+            System.out.println("repository<Customer> snapshot " + file.getFileName() + " written in "
+                    + (System.currentTimeMillis() - started) + " ms");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a final snapshot, detach log from the repository and close it after all
+     * records were written.
+     *
+     * @throws IOException when writing remaining records fails.
+     */
+    @PreDestroy
+    void close() throws IOException {
+        lock.lock();
+        try {
+            if(log == null) return;
+            if(scheduler != null) scheduler.shutdown();	// cancels periodic snapshots
+            try {
+                snapshot();
+            } finally {
+                customerRepository.attachLog(null);
+                log.close();
+                log = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
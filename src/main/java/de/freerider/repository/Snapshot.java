@@ -0,0 +1,280 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Point-in-time snapshot of all customers in a binary file, written with a
+ * {@link FileChannel} and loaded from memory-mapped segments in parallel.
+ * <p>
+ * Snapshots are fuzzy: customers are copied while the repository keeps changing.
+ * A snapshot taken after the {@link WriteAheadLog} was rolled at sequence number
+ * {@code seq} contains all changes up to {@code seq} and possibly some later ones,
+ * replaying the log records after {@code seq} on top of it restores the exact state.
+ * <p>
+ * File layout (big endian), files are named {@code snapshot-<seq>.snap}:
+ * <pre>{@code
+ * header:  int magic, int version, long seq, long count, long offset of segment table
+ * segment: (int length, encoded customer) ...
+ * table:   int number of segments, (long offset, int length, int count, int CRC32) ...
+ * }</pre>
+ */
+final class Snapshot {
+
+    // "FRSN"
+    private static final int MAGIC = 0x4652534E;
+    private static final int VERSION = 1;
+    private static final int HEADER = 4 + 4 + 8 + 8 + 8;
+    private static final int TABLE_ENTRY = 8 + 4 + 4 + 4;
+    // target size of a segment, segments are loaded in parallel
+    static final int SEGMENT_SIZE = 8 << 20;
+
+    /**
+     * Segment of a snapshot file.
+     */
+    private static final class Segment {
+        final long offset;
+        final int length;
+        final int count;
+        final int crc;
+
+        Segment(long offset, int length, int count, int crc) {
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.crc = crc;
+        }
+    }
+
+    private Snapshot() { }
+
+    /**
+     * Write snapshot of customers, then delete older snapshots. The file is written
+     * under a temporary name, forced to disk and renamed atomically; the directory is
+     * forced before older snapshots are deleted, such that the snapshot is durable when
+     * this method returns and log files it covers may be deleted.
+     *
+     * @param dir directory of snapshot files, created if missing.
+     * @param seq log sequence number all changes up to are contained in customers.
+     * @param customers customers to write.
+     * @param segmentSize target size of segments in bytes.
+     * @return written snapshot file.
+     * @throws IOException when writing fails.
+     */
+    static Path write(Path dir, long seq, Iterable<Customer> customers, int segmentSize) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve(String.format("snapshot-%020d.snap", seq));
+        Path tmp = dir.resolve(file.getFileName() + ".tmp");
+        List<Segment> segments = new ArrayList<Segment>();
+        long count = 0;
+        try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER);
+            ByteBuffer segment = ByteBuffer.allocate(segmentSize);
+            int inSegment = 0;
+            for(Customer customer: customers) {
+                byte[] encoded = encode(customer);
+                if(segment.remaining() < 4 + encoded.length && inSegment > 0) {
+                    segments.add(flush(channel, segment, inSegment));
+                    inSegment = 0;
+                    // buffer grown for a large customer, following segments have the target size again
+                    if(segment.capacity() != segmentSize) segment = ByteBuffer.allocate(segmentSize);
+                }
+                if(segment.remaining() < 4 + encoded.length) {	// customer larger than a segment
+                    segment = ByteBuffer.allocate(4 + encoded.length);
+                }
+                segment.putInt(encoded.length).put(encoded);
+                inSegment++;
+                count++;
+            }
+            if(inSegment > 0) segments.add(flush(channel, segment, inSegment));
+            long tableOffset = channel.position();
+            ByteBuffer table = ByteBuffer.allocate(4 + segments.size() * TABLE_ENTRY);
+            table.putInt(segments.size());
+            for(Segment s: segments) {
+                table.putLong(s.offset).putInt(s.length).putInt(s.count).putInt(s.crc);
+            }
+            writeFully(channel, table.flip());
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putLong(seq).putLong(count).putLong(tableOffset);
+            channel.position(0);
+            writeFully(channel, header.flip());
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // the rename must be durable before older snapshots and covered log files are deleted
+        forceDirectory(dir);
+        for(Path older: files(dir)) {
+            if(!older.equals(file)) Files.deleteIfExists(older);
+        }
+        return file;
+    }
+
+    /**
+     * Load newest snapshot in directory. Segments are memory-mapped and decoded in
+     * parallel, the customers of each segment are passed to the consumer from multiple
+     * threads.
+     *
+     * @param dir directory of snapshot files.
+     * @param into thread-safe consumer of the customers of each segment.
+     * @return log sequence number of loaded snapshot, 0 if there is none.
+     * @throws IOException when reading fails or the snapshot is corrupted.
+     */
+    static long load(Path dir, Consumer<List<Customer>> into) throws IOException {
+        return load(dir, Customer[]::new, into);
+    }
+
+    /**
+     * Load newest snapshot in directory into a single array. Segments are memory-mapped
+     * and decoded in parallel, each straight into its range of the array, such that
+     * customers are not copied between intermediate lists.
+     *
+     * @param dir directory of snapshot files.
+     * @param into called once with the number of customers in the snapshot, returns the
+     *             array of at least that length customers are loaded into in file order;
+     *             not called if there is no snapshot.
+     * @return log sequence number of loaded snapshot, 0 if there is none.
+     * @throws IOException when reading fails or the snapshot is corrupted.
+     */
+    static long loadInto(Path dir, IntFunction<Customer[]> into) throws IOException {
+        return load(dir, into, segment -> { });
+    }
+
+
+    /*
+        Private methods
+     */
+
+    // load newest snapshot into array returned by allocate, pass each decoded segment to into
+    private static long load(Path dir, IntFunction<Customer[]> allocate, Consumer<List<Customer>> into) throws IOException {
+        if(!Files.isDirectory(dir)) return 0;
+        List<Path> files = files(dir);
+        if(files.isEmpty()) return 0;
+        Path file = files.get(files.size() - 1);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, 0, HEADER);
+            if(header.getInt() != MAGIC || header.getInt() != VERSION) throw new IOException("invalid snapshot " + file);
+            long seq = header.getLong();
+            long count = header.getLong();
+            long tableOffset = header.getLong();
+            if(count < 0 || count > Integer.MAX_VALUE - 8) throw new IOException("invalid snapshot " + file + ", " + count + " customers");
+            int n = readFully(channel, tableOffset, 4).getInt();
+            ByteBuffer table = readFully(channel, tableOffset + 4, (long) n * TABLE_ENTRY);
+            List<Segment> segments = new ArrayList<Segment>(n);
+            int[] first = new int[n];	// index of first customer of each segment in the array
+            long total = 0;
+            for(int i = 0; i < n; i++) {
+                Segment segment = new Segment(table.getLong(), table.getInt(), table.getInt(), table.getInt());
+                if(segment.count < 0 || total + segment.count > count) {
+                    throw new IOException("corrupted snapshot " + file + ", more than " + count + " customers");
+                }
+                first[i] = (int) total;
+                total += segment.count;
+                segments.add(segment);
+            }
+            if(total != count) throw new IOException("corrupted snapshot " + file + ", " + total + " of " + count + " customers");
+            Customer[] customers = allocate.apply((int) count);
+            try {
+                IntStream.range(0, n).parallel().forEach(i -> {
+                    try {
+                        load(channel, segments.get(i), customers, first[i]);
+                        into.accept(Arrays.asList(customers).subList(first[i], first[i] + segments.get(i).count));
+                    } catch(IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch(UncheckedIOException e) {
+                throw new IOException("corrupted snapshot " + file, e.getCause());
+            }
+            return seq;
+        }
+    }
+
+    // encode customer, retry when it is changed concurrently (the change is logged after the snapshot's seq)
+    private static byte[] encode(Customer customer) {
+        while(true) {
+            try {
+                return CustomerCodec.encode(customer);
+            } catch(ConcurrentModificationException e) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private static Segment flush(FileChannel channel, ByteBuffer segment, int count) throws IOException {
+        segment.flip();
+        CRC32 crc = new CRC32();
+        crc.update(segment.array(), 0, segment.limit());
+        Segment written = new Segment(channel.position(), segment.limit(), count, (int) crc.getValue());
+        writeFully(channel, segment);
+        segment.clear();
+        return written;
+    }
+
+    // force directory entries to disk, e.g. a renamed file, which is lost on power failure otherwise
+    private static void forceDirectory(Path dir) throws IOException {
+        try(FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    // map segment, verify checksum and decode its customers into array starting at index first
+    private static void load(FileChannel channel, Segment segment, Customer[] into, int first) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, segment.offset, segment.length);
+        CRC32 crc = new CRC32();
+        crc.update(mapped.duplicate());
+        if((int) crc.getValue() != segment.crc) throw new IOException("checksum mismatch at offset " + segment.offset);
+        int decoded = 0;
+        try {
+            while(mapped.hasRemaining() && decoded < segment.count) {
+                int length = mapped.getInt();
+                into[first + decoded++] = CustomerCodec.decode(mapped.slice(mapped.position(), length));
+                mapped.position(mapped.position() + length);
+            }
+        } catch(RuntimeException e) {
+            throw new IOException("invalid customer in segment at offset " + segment.offset, e);
+        }
+        if(decoded != segment.count || mapped.hasRemaining()) throw new IOException("invalid segment at offset " + segment.offset);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, long length) throws IOException {
+        if(length < 0 || position + length > channel.size()) throw new IOException("truncated snapshot");
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) throw new IOException("truncated snapshot");
+        }
+        return buffer.flip();
+    }
+
+    // snapshot files in ascending order of their sequence number
+    private static List<Path> files(Path dir) throws IOException {
+        try(Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> p.getFileName().toString().matches("snapshot-\\d{20}\\.snap"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
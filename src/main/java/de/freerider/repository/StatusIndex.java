@@ -0,0 +1,156 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+
+/**
+ * Bitmap index over customer ids per {@link Customer.Status}. Each status has a
+ * compressed {@link IdBitmap} per partition, counts are maintained with the bitmaps
+ * and cost {@code O(1)}, iterating ids of a status costs time proportional to the result.
+ * <p>
+ * Thread-safe. The index is split into partitions, one per lock stripe of the
+ * {@link CustomerRepository}: callers pass the stripe of the id, so writers of
+ * different stripes never contend. Each partition is guarded by its own read-write
+ * lock held only for the duration of a bitmap operation, counts are striped adders.
+ */
+final class StatusIndex {
+    // partitions of the index, selected by the caller's stripe of an id
+    private final Partition[] partitions;
+    // number of ids per status, indexed by Status ordinal
+    private final LongAdder[] counts = new LongAdder[Customer.Status.values().length];
+
+    /**
+     * Bitmaps of one partition guarded by its own lock.
+     */
+    private static final class Partition {
+        // bitmap of ids per status, indexed by Status ordinal
+        final IdBitmap[] bitmaps = new IdBitmap[Customer.Status.values().length];
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        Partition() {
+            for(int i = 0; i < bitmaps.length; i++) {
+                bitmaps[i] = new IdBitmap();
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param partitions number of partitions, e.g. lock stripes of the repository.
+     */
+    StatusIndex(int partitions) {
+        this.partitions = new Partition[partitions];
+        for(int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition();
+        }
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    void add(int partition, long id, Customer.Status status) {
+        move(partition, id, null, status);
+    }
+
+    void remove(int partition, long id, Customer.Status status) {
+        move(partition, id, status, null);
+    }
+
+    /**
+     * Move id from bitmap of old status to bitmap of new status in one step.
+     *
+     * @param partition partition of id, the same for all operations on id.
+     * @param id id of customer.
+     * @param oldStatus status before change, null if not indexed.
+     * @param newStatus status after change, null to remove id.
+     */
+    void move(int partition, long id, Customer.Status oldStatus, Customer.Status newStatus) {
+        if(oldStatus == newStatus) return;
+        Partition p = partitions[partition];
+        p.lock.writeLock().lock();
+        try {
+            if(oldStatus != null && p.bitmaps[oldStatus.ordinal()].remove(id)) counts[oldStatus.ordinal()].decrement();
+            if(newStatus != null && p.bitmaps[newStatus.ordinal()].add(id)) counts[newStatus.ordinal()].increment();
+        } finally {
+            p.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all ids, callers hold the locks of all stripes.
+     */
+    void clear() {
+        for(Partition p: partitions) {
+            p.lock.writeLock().lock();
+            try {
+                for(IdBitmap bitmap: p.bitmaps) {
+                    bitmap.clear();
+                }
+            } finally {
+                p.lock.writeLock().unlock();
+            }
+        }
+        for(LongAdder count: counts) {
+            count.reset();
+        }
+    }
+
+    long count(Customer.Status status) {
+        return counts[status.ordinal()].sum();
+    }
+
+    /**
+     * Perform action for ids having any of the statuses and, if not null, contained in
+     * ids. Ids are collected partition by partition under its read lock and sorted,
+     * action runs after the locks are released.
+     *
+     * @param statuses statuses ids are selected by.
+     * @param ids bitmap intersected with selected ids, null for no restriction.
+     * @param action action performed with each id in ascending order.
+     */
+    void forEach(Customer.Status[] statuses, IdBitmap ids, LongConsumer action) {
+        LongCollector selected = new LongCollector();
+        boolean[] requested = new boolean[counts.length];
+        for(Customer.Status status: statuses) {
+            requested[status.ordinal()] = true;
+        }
+        for(Partition p: partitions) {
+            p.lock.readLock().lock();
+            try {
+                for(Customer.Status status: Customer.Status.values()) {
+                    if(!requested[status.ordinal()]) continue;
+                    IdBitmap bitmap = p.bitmaps[status.ordinal()];
+                    // intersect first such that only matching ids are copied
+                    (ids != null ? ids.and(bitmap) : bitmap).forEach(selected);
+                }
+            } finally {
+                p.lock.readLock().unlock();
+            }
+        }
+        // an id is in one partition and has one status, ids are distinct
+        long[] sorted = Arrays.copyOf(selected.values, selected.size);
+        Arrays.sort(sorted);
+        for(long id: sorted) {
+            action.accept(id);
+        }
+    }
+
+    /**
+     * Growable array of ids.
+     */
+    private static final class LongCollector implements LongConsumer {
+        long[] values = new long[64];
+        int size;
+
+        @Override
+        public void accept(long value) {
+            if(size == values.length) values = Arrays.copyOf(values, size << 1);
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, checksummed write-ahead log of repository changes on local disk.
+ * <p>
+ * Records are appended by the thread performing a change and written by a single
+ * background writer, which takes all records queued at a time as one batch. Appending
+ * never blocks, it is called under the repository's stripe locks; appenders are pushed
+ * back when the disk falls behind in {@link Pending#await()}, after releasing the lock. How
+ * long the appending thread waits, and how often the log is forced to disk, depends
+ * on the {@link Durability} level:
+ * <pre>{@code
+ * FSYNC  - each record is forced to disk on its own, appender waits for it.
+ * GROUP  - each batch is forced to disk once (group commit), appenders wait for it.
+ * ASYNC  - batches are forced periodically, appenders do not wait.
+ * }</pre>
+ * Record layout (big endian):
+ * <pre>{@code
+ * int  length of payload
+ * int  CRC32 over type, seq and payload
+ * byte type: 1 save, 2 delete, 3 clear
+ * long seq
+ * byte[] payload: encoded customer (save), long id (delete), empty (clear)
+ * }</pre>
+ * Log files are named {@code wal-<seq>.log} after the first sequence number they
+ * may contain, a new file is started whenever the log is opened or {@link #roll() rolled}.
+ * Files rolled before a {@link Snapshot} was taken can be deleted once the snapshot
+ * is written, records covered by the snapshot are skipped when replaying.
+ */
+final class WriteAheadLog implements Closeable {
+
+    /**
+     * Durability levels of appended records.
+     */
+    enum Durability { FSYNC, GROUP, ASYNC }
+
+    /**
+     * Receives records while the log is replayed.
+     */
+    interface Replay {
+        void save(long seq, Customer customer);
+        void delete(long seq, long id);
+        void clear(long seq);
+    }
+
+    /**
+     * Record waiting to be written.
+     */
+    static final class Pending {
+        private final WriteAheadLog log;
+        private final ByteBuffer record;
+        private final CompletableFuture<Void> written = new CompletableFuture<Void>();
+
+        private Pending(WriteAheadLog log, ByteBuffer record) {
+            this.log = log;
+            this.record = record;
+        }
+
+        /**
+         * Wait until record is durable according to the log's durability level, and
+         * while the log's backlog of queued records is full.
+         *
+         * @throws UncheckedIOException when the record could not be written.
+         */
+        void await() {
+            log.throttle();
+            boolean interrupted = false;
+            while(true) {
+                try {
+                    written.get();
+                    break;
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                } catch(ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? new UncheckedIOException((IOException) cause)
+                            : new IllegalStateException("write-ahead log failed", cause);
+                }
+            }
+            if(interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    static final byte SAVE = 1;
+    static final byte DELETE = 2;
+    static final byte CLEAR = 3;
+
+    // size of record header: length, crc, type, seq
+    private static final int HEADER = 4 + 4 + 1 + 8;
+    // upper bound of a payload, larger lengths indicate corruption
+    private static final int MAX_PAYLOAD = 64 << 20;
+    // maximum number of records written as one batch
+    private static final int MAX_BATCH = 4096;
+    // interval in which the writer checks for closing when idle
+    private static final long POLL_MILLIS = 10;
+    // number of queued records above which appenders are throttled after releasing their locks
+    private static final int MAX_QUEUED = 1 << 16;
+    // interval in which throttled appenders check the backlog
+    private static final long THROTTLE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // records waiting for the writer, unbounded such that appending under a lock never blocks
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+    // last assigned sequence number
+    private final AtomicLong seq;
+    private final Path dir;
+    private final Durability durability;
+    // interval in which ASYNC batches are forced to disk
+    private final long asyncForceMillis;
+    private final Thread writer;
+    private FileChannel channel;
+    // file currently appended to, replaced by the writer when rolling
+    private volatile Path current;
+    private volatile boolean closed = false;
+    // first write error, fails all later appends
+    private volatile IOException failure = null;
+
+    private WriteAheadLog(Path dir, Durability durability, long asyncForceMillis, long lastSeq) throws IOException {
+        this.dir = dir;
+        this.durability = durability;
+        this.asyncForceMillis = asyncForceMillis;
+        this.seq = new AtomicLong(lastSeq);
+        this.channel = create(lastSeq + 1);
+        this.writer = new Thread(this::write, "wal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Replay records logged in directory after the given sequence number, then open the
+     * log for appending. A torn record at the end of the newest file (crash during write)
+     * is cut off.
+     *
+     * @param dir directory of log files, created if missing.
+     * @param durability durability level of appended records.
+     * @param asyncForceMillis interval in which records are forced to disk with {@link Durability#ASYNC}.
+     * @param after sequence number up to which records are skipped, e.g. covered by a snapshot.
+     * @param replay receives replayed records in log order.
+     * @return log open for appending.
+     * @throws IOException when log files cannot be read or are corrupted.
+     */
+    static WriteAheadLog open(Path dir, Durability durability, long asyncForceMillis, long after, Replay replay) throws IOException {
+        Files.createDirectories(dir);
+        long lastSeq = after;
+        List<Path> files = files(dir);
+        for(int i = 0; i < files.size(); i++) {
+            lastSeq = Math.max(lastSeq, replay(files.get(i), i == files.size() - 1, after, replay));
+        }
+        return new WriteAheadLog(dir, durability, asyncForceMillis, lastSeq);
+    }
+
+    /**
+     * Append record. Must be called in the order changes become visible, i.e. under the
+     * lock guarding the changed entity. Returns immediately, {@link Pending#await()} waits
+     * for the record to become durable and must be called after releasing that lock.
+     *
+     * @param type record type: SAVE, DELETE or CLEAR.
+     * @param payload record payload.
+     * @return pending record.
+     * @throws UncheckedIOException when the log has failed before.
+     * @throws IllegalStateException when the log is closed.
+     */
+    Pending append(byte type, byte[] payload) {
+        if(failure != null) throw new UncheckedIOException("write-ahead log failed", failure);
+        if(closed) throw new IllegalStateException("write-ahead log closed");
+        long s = seq.incrementAndGet();
+        ByteBuffer record = ByteBuffer.allocate(HEADER + payload.length);
+        record.putInt(payload.length).putInt(0).put(type).putLong(s).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.capacity() - 8);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        Pending pending = new Pending(this, record);
+        if(durability == Durability.ASYNC) pending.written.complete(null);	// appender does not wait
+        enqueue(pending);
+        return pending;
+    }
+
+    /**
+     * Start a new log file. Returns after all records appended before were written
+     * to the previous files, these contain no records with sequence numbers greater
+     * than {@link #lastSeq()} read after rolling.
+     *
+     * @return previous log files, may be deleted when covered by a snapshot.
+     * @throws IOException when the log has failed or starting the new file fails.
+     */
+    List<Path> roll() throws IOException {
+        if(closed) throw new IllegalStateException("write-ahead log closed");
+        Pending marker = new Pending(this, null);
+        enqueue(marker);
+        try {
+            marker.await();
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+        String name = current.getFileName().toString();
+        List<Path> previous = new ArrayList<Path>();
+        for(Path file: files(dir)) {
+            if(file.getFileName().toString().compareTo(name) < 0) previous.add(file);
+        }
+        return previous;
+    }
+
+    /**
+     * Last assigned sequence number.
+     *
+     * @return last sequence number.
+     */
+    long lastSeq() {
+        return seq.get();
+    }
+
+    Durability durability() {
+        return durability;
+    }
+
+    /**
+     * Write all queued records, force them to disk and close the log.
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        try {
+            writer.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        // fail records appended concurrently with closing
+        for(Pending pending; (pending = queue.poll()) != null; ) {
+            pending.written.completeExceptionally(new IOException("write-ahead log closed"));
+        }
+        if(failure != null) throw failure;
+    }
+
+
+    /*
+        Private methods
+     */
+
+    // queue record for the writer without blocking; close() may have drained the queue
+    // after the caller checked closed, a record still queued then is never taken and is
+    // withdrawn, records taken by the writer or close() are completed by them
+    private void enqueue(Pending pending) {
+        queue.offer(pending);
+        if(closed && queue.remove(pending)) throw new IllegalStateException("write-ahead log closed");
+    }
+
+    // called without locks held, waits while the writer falls behind by more than MAX_QUEUED records
+    private void throttle() {
+        while(queue.size() > MAX_QUEUED && !closed && failure == null) {
+            LockSupport.parkNanos(THROTTLE_NANOS);
+        }
+    }
+
+    // writer thread: drain queue in batches until closed
+    private void write() {
+        List<Pending> batch = new ArrayList<Pending>();
+        long lastForce = System.currentTimeMillis();
+        boolean dirty = false;
+        while(!(closed && queue.isEmpty())) {
+            try {
+                Pending first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch(InterruptedException e) {
+                // writer is stopped by closing only
+            }
+            try {
+                if(failure != null) throw failure;
+                for(Pending pending: batch) {
+                    if(pending.record == null) {	// roll marker
+                        channel.force(false);
+                        channel.close();
+                        channel = create(seq.get() + 1);
+                        continue;
+                    }
+                    while(pending.record.hasRemaining()) channel.write(pending.record);
+                    if(durability == Durability.FSYNC) {
+                        channel.force(false);
+                        pending.written.complete(null);
+                    }
+                }
+                dirty |= !batch.isEmpty();
+                long now = System.currentTimeMillis();
+                if(dirty && (durability == Durability.GROUP || closed || now - lastForce >= asyncForceMillis)) {
+                    channel.force(false);
+                    lastForce = now;
+                    dirty = false;
+                }
+                batch.forEach(pending -> pending.written.complete(null));
+            } catch(IOException e) {
+                if(failure == null) failure = e;
+                batch.forEach(pending -> pending.written.completeExceptionally(failure));
+            }
+            batch.clear();
+        }
+    }
+
+    private FileChannel create(long firstSeq) throws IOException {
+        Path file = dir.resolve(String.format("wal-%020d.log", firstSeq));
+        FileChannel created = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        current = file;
+        return created;
+    }
+
+    // log files in ascending order of their first sequence number
+    private static List<Path> files(Path dir) throws IOException {
+        try(Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> p.getFileName().toString().matches("wal-\\d{20}\\.log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // replay records after given sequence number of one file, returns highest sequence number found
+    private static long replay(Path file, boolean newest, long after, Replay replay) throws IOException {
+        long lastSeq = 0;
+        long valid = 0;	// position after last valid record
+        try(InputStream in = Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ));
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16))) {
+            CRC32 crc = new CRC32();
+            while(true) {
+                ByteBuffer record;
+                int length;
+                try {
+                    length = data.readInt();
+                    int checksum = data.readInt();
+                    if(length < 0 || length > MAX_PAYLOAD) throw new EOFException("invalid length");
+                    record = ByteBuffer.allocate(1 + 8 + length);
+                    data.readFully(record.array());
+                    crc.reset();
+                    crc.update(record.array());
+                    if((int) crc.getValue() != checksum) throw new EOFException("checksum mismatch");
+                } catch(EOFException e) {
+                    break;	// end of file or torn record
+                }
+                byte type = record.get();
+                long s = record.getLong();
+                if(s > after) {	// records up to after are covered by a snapshot
+                    switch(type) {
+                        case SAVE: replay.save(s, CustomerCodec.decode(record)); break;
+                        case DELETE: replay.delete(s, record.getLong()); break;
+                        case CLEAR: replay.clear(s); break;
+                        default: throw new IOException("invalid record type " + type + " in " + file);
+                    }
+                }
+                lastSeq = Math.max(lastSeq, s);
+                valid += HEADER + length;
+            }
+        }
+        long size = Files.size(file);
+        if(valid < size) {
+            if(!newest) throw new IOException("corrupted record at offset " + valid + " in " + file);
+            try(FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(valid);	// cut off torn record of last write before crash
+            }
+        }
+        return lastSeq;
+    }
+}
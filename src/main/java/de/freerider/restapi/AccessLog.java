@@ -0,0 +1,193 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous access log writing one JSON line per request:
+ * <pre>{@code
+ * {"time":"2022-06-01T12:00:00.123Z","method":"GET","uri":"/api/v1/customers/1","status":200,"micros":87,"bytes":88}
+ * }</pre>
+ * Request threads record entries into a bounded lock-free ring buffer of preallocated
+ * slots and return immediately, a background thread drains the buffer and writes lines.
+ * Request threads never block on I/O or locks: when the buffer is full, entries are
+ * dropped and counted, the number of dropped entries is logged as {@code {"dropped":n}}.
+ * Requests are sampled, failed requests (status 400 and above) are always logged.
+ * Configured in application.properties:
+ * <pre>{@code
+ * app.access-log.file          - file lines are appended to, stderr when empty
+ * app.access-log.sampling      - fraction of requests logged, 0.0 to 1.0
+ * app.access-log.buffer-size   - number of slots of the ring buffer, a power of two
+ * }</pre>
+ */
+@Component
+class AccessLog {
+    // time the writer sleeps when the buffer is empty
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.access-log.file:}")
+    private String file;
+
+    @Value("${app.access-log.sampling:1.0}")
+    private double sampling;
+
+    @Value("${app.access-log.buffer-size:65536}")
+    private int bufferSize;
+
+    /**
+     * Slot of the ring buffer, fields are written by the recording thread before the
+     * slot is published by setting {@code published} to the slot's sequence number.
+     */
+    private static final class Entry {
+        long time;
+        String method;
+        String uri;
+        int status;
+        long nanos;
+        long bytes;
+        volatile long published = -1;
+    }
+
+    private Entry[] entries;
+    private int mask;
+    // sequence number of the next slot claimed by a recording thread
+    private final AtomicLong claimed = new AtomicLong();
+    // sequence number of the next slot read by the writer, slots before are free
+    private final AtomicLong drained = new AtomicLong();
+    // entries dropped because the buffer was full
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean running = false;
+    private Thread writer;
+    private OutputStream out;
+
+    /**
+     * Allocate the ring buffer, open the log file and start the writer thread.
+     *
+     * @throws IOException when the log file cannot be opened.
+     */
+    @PostConstruct
+    void start() throws IOException {
+        if(Integer.bitCount(bufferSize) != 1) throw new IllegalArgumentException("app.access-log.buffer-size must be a power of two!");
+        entries = new Entry[bufferSize];
+        for(int i = 0; i < bufferSize; i++) {
+            entries[i] = new Entry();
+        }
+        mask = bufferSize - 1;
+        out = file == null || file.trim().length() == 0 ? System.err
+                : Files.newOutputStream(Paths.get(file.trim()), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        running = true;
+        writer = new Thread(this::drain, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stop the writer thread after it has written all recorded entries.
+     *
+     * @throws InterruptedException when interrupted while waiting for the writer.
+     */
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+    }
+
+    /**
+     * Record a request, never blocks. Sampled requests and failed requests are logged.
+     *
+     * @param method HTTP method.
+     * @param uri request URI.
+     * @param status response status.
+     * @param nanos time the request took in nanoseconds.
+     * @param bytes number of bytes in the response body.
+     */
+    void record( String method, String uri, int status, long nanos, long bytes ) {
+        if(status < 400 && (sampling <= 0.0 || (sampling < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampling))) return;
+        long seq;
+        do {
+            seq = claimed.get();
+            if(seq - drained.get() >= entries.length) {
+                dropped.increment();	// full: drop rather than wait for the writer
+                return;
+            }
+        } while(! claimed.compareAndSet(seq, seq + 1));
+        Entry entry = entries[(int) seq & mask];
+        entry.time = System.currentTimeMillis();
+        entry.method = method;
+        entry.uri = uri;
+        entry.status = status;
+        entry.nanos = nanos;
+        entry.bytes = bytes;
+        entry.published = seq;
+    }
+
+
+    /*
+        Private methods
+     */
+
+    // writer thread: write published entries in sequence order, flush when the buffer is empty
+    private void drain() {
+        try( JsonGenerator generator = objectMapper.getFactory().createGenerator(out) ) {
+            generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, out != System.err);
+            generator.setRootValueSeparator(null);
+            long seq = drained.get();
+            while(true) {
+                Entry entry = entries[(int) seq & mask];
+                if(entry.published == seq) {
+                    write(generator, entry);
+                    entry.method = entry.uri = null;
+                    drained.set(++seq);	// frees the slot
+                    continue;
+                }
+                long n = dropped.sumThenReset();
+                if(n > 0) {
+                    generator.writeStartObject();
+                    generator.writeNumberField("dropped", n);
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                }
+                generator.flush();
+                if(! running && claimed.get() == seq) break;
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write( JsonGenerator generator, Entry entry ) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("time", Instant.ofEpochMilli(entry.time).toString());
+        generator.writeStringField("method", entry.method);
+        generator.writeStringField("uri", entry.uri);
+        generator.writeNumberField("status", entry.status);
+        generator.writeNumberField("micros", entry.nanos / 1_000);
+        generator.writeNumberField("bytes", entry.bytes);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+}
@@ -0,0 +1,164 @@
+package de.freerider.restapi;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Records every request in the {@link AccessLog} with its status, latency and the
+ * number of bytes of the response body, counted by wrapping the response's output
+ * stream. Requests handled by an operation of the REST APIs are also recorded in the
+ * {@link Metrics} under the name of the handler method. Requests that continue
+ * asynchronously (e.g. change streams) are recorded when they complete.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+class AccessLogFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private AccessLog accessLog;
+
+    @Autowired
+    private Metrics metrics;
+
+    @Override
+    protected void doFilterInternal( HttpServletRequest request, HttpServletResponse response, FilterChain chain ) throws ServletException, IOException {
+        long started = System.nanoTime();
+        CountingResponse counting = new CountingResponse( response );
+        boolean failed = true;
+        try {
+            chain.doFilter( request, counting );
+            counting.flushWriter();
+            failed = false;
+        } finally {
+            if(! failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener( new AsyncListener() {
+                    @Override
+                    public void onComplete( AsyncEvent event ) {
+                        record( request, counting, started, false );
+                    }
+
+                    @Override
+                    public void onTimeout( AsyncEvent event ) { }
+
+                    @Override
+                    public void onError( AsyncEvent event ) { }
+
+                    @Override
+                    public void onStartAsync( AsyncEvent event ) { }
+                });
+            } else {
+                record( request, counting, started, failed );
+            }
+        }
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private void record( HttpServletRequest request, CountingResponse response, long started, boolean failed ) {
+        // exceptions propagating from the chain are turned into 500 by the container
+        int status = failed ? HttpStatus.INTERNAL_SERVER_ERROR.value() : response.getStatus();
+        long nanos = System.nanoTime() - started;
+        accessLog.record( request.getMethod(), request.getRequestURI(), status, nanos, response.bytes );
+        // set by the DispatcherServlet when a handler method was found for the request
+        Object handler = request.getAttribute( HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE );
+        if(handler instanceof HandlerMethod) {
+            metrics.record( ((HandlerMethod) handler).getMethod().getName(), status, nanos,
+                    request.getContentLengthLong(), response.bytes );
+        }
+    }
+
+    /**
+     * Response counting the bytes written to its body.
+     */
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+        // bytes written, read after the response completed
+        private volatile long bytes = 0;
+        private ServletOutputStream out = null;
+        private PrintWriter writer = null;
+
+        CountingResponse( HttpServletResponse response ) {
+            super( response );
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if(out == null) {
+                ServletOutputStream target = super.getOutputStream();
+                out = new ServletOutputStream() {
+                    @Override
+                    public void write( int b ) throws IOException {
+                        target.write( b );
+                        bytes++;
+                    }
+
+                    @Override
+                    public void write( byte[] b, int off, int len ) throws IOException {
+                        target.write( b, off, len );
+                        bytes += len;
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        target.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        target.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return target.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener( WriteListener listener ) {
+                        target.setWriteListener( listener );
+                    }
+                };
+            }
+            return out;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if(writer == null) {
+                writer = new PrintWriter( new OutputStreamWriter( getOutputStream(), getCharacterEncoding() ) );
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            flushWriter();
+            super.flushBuffer();
+        }
+
+        // characters buffered by the writer are not counted until flushed
+        void flushWriter() {
+            if(writer != null) writer.flush();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package de.freerider.restapi;
+
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive counterpart of the {@link AccessLogFilter}: records every request in the
+ * {@link AccessLog} with its status, latency and the number of bytes of the response
+ * body, counted by decorating the response's body writes. Requests handled by an
+ * operation of the REST APIs are also recorded in the {@link Metrics} under the name
+ * of the handler method. Requests are recorded when their response completes, fails
+ * or is cancelled by the client, streams (e.g. change streams) when they end.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+class AccessLogWebFilter implements WebFilter {
+
+    @Autowired
+    private AccessLog accessLog;
+
+    @Autowired
+    private Metrics metrics;
+
+    @Override
+    public Mono<Void> filter( ServerWebExchange exchange, WebFilterChain chain ) {
+        long started = System.nanoTime();
+        CountingResponse counting = new CountingResponse( exchange.getResponse() );
+        return chain.filter( exchange.mutate().response( counting ).build() )
+                .doOnError( e -> counting.failure = e )
+                .doFinally( signal -> record( exchange, counting, started ) );
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private void record( ServerWebExchange exchange, CountingResponse response, long started ) {
+        long nanos = System.nanoTime() - started;
+        ServerHttpRequest request = exchange.getRequest();
+        int status = status( response );
+        accessLog.record( request.getMethodValue(), request.getURI().getRawPath(), status, nanos, response.bytes );
+        // set by the DispatcherHandler when a handler method was found for the request
+        Object handler = exchange.getAttribute( HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE );
+        if(handler instanceof HandlerMethod) {
+            metrics.record( ((HandlerMethod) handler).getMethod().getName(), status, nanos,
+                    request.getHeaders().getContentLength(), response.bytes );
+        }
+    }
+
+    // errors propagating through the filter are turned into responses by the web handler
+    private static int status( CountingResponse response ) {
+        Throwable failure = response.failure;
+        if(failure instanceof ResponseStatusException) return ((ResponseStatusException) failure).getRawStatusCode();
+        if(failure != null) return HttpStatus.INTERNAL_SERVER_ERROR.value();
+        Integer status = response.getRawStatusCode();
+        return status != null ? status : HttpStatus.OK.value();
+    }
+
+    /**
+     * Response counting the bytes written to its body.
+     */
+    private static final class CountingResponse extends ServerHttpResponseDecorator {
+        // bytes written, read after the response completed
+        private volatile long bytes = 0;
+        // error the exchange failed with, null if none
+        private volatile Throwable failure = null;
+
+        CountingResponse( ServerHttpResponse response ) {
+            super( response );
+        }
+
+        @Override
+        public Mono<Void> writeWith( Publisher<? extends DataBuffer> body ) {
+            return super.writeWith( count( body ) );
+        }
+
+        @Override
+        public Mono<Void> writeAndFlushWith( Publisher<? extends Publisher<? extends DataBuffer>> body ) {
+            return super.writeAndFlushWith( Flux.from( body ).map( this::count ) );
+        }
+
+        // buffers are counted when handed to the server, one writer at a time
+        private Flux<? extends DataBuffer> count( Publisher<? extends DataBuffer> body ) {
+            return Flux.from( body ).doOnNext( buffer -> bytes += buffer.readableByteCount() );
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.freerider.repository.CustomerRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes changes of the CustomerRepository to subscribers as Server-Sent Events
+ * ({@code text/event-stream}), one event per change:
+ * <pre>{@code
+ * id: 42
+ * event: save
+ * data: {"seq":42,"type":"save","id":1,"customer":{"name":"Meyer","first":"Eric","contacts":""}}
+ * }</pre>
+ * Subscribers hold no thread: requests are put into async mode and written with
+ * non-blocking servlet I/O. A single dispatcher thread polls the repository's change
+ * log, renders new changes once and hands the same bytes to all subscribers that are
+ * up to date. Each subscriber keeps its own cursor (the sequence number of the last
+ * change written); a subscriber whose connection is not ready to take more bytes is
+ * skipped and catches up from the change log in batches when it becomes writable again.
+ * <p>
+ * Writers of the repository never wait for subscribers. A subscriber blocked longer
+ * than {@code drop-after-millis} is dropped, a subscriber that falls behind the change
+ * log receives a {@code resync} event and is closed: it must read all customers again
+ * and subscribe with the {@code X-Change-Seq} of that read. Configured in
+ * application.properties:
+ * <pre>{@code
+ * app.api.changes.poll-millis          - interval of polling the change log
+ * app.api.changes.drop-after-millis    - time a blocked subscriber is kept
+ * app.api.changes.heartbeat-seconds    - interval of comments keeping idle connections open
+ * }</pre>
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+class ChangeStream {
+    // maximum number of changes rendered at once
+    private static final int BATCH = 1_000;
+    // sent first, lets clients reconnect after one second
+    private static final byte[] PREAMBLE = "retry: 1000\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESYNC = "event: resync\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.api.changes.poll-millis:50}")
+    private long pollMillis;
+
+    @Value("${app.api.changes.drop-after-millis:10000}")
+    private long dropAfterMillis;
+
+    @Value("${app.api.changes.heartbeat-seconds:15}")
+    private long heartbeatSeconds;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    // polls the change log and writes to subscribers
+    private ScheduledExecutorService dispatcher;
+
+    // sequence number up to which changes were handed to subscribers, dispatcher thread only
+    private long dispatched;
+
+    // time of last heartbeat, dispatcher thread only
+    private long heartbeat;
+
+    /**
+     * Start the dispatcher thread.
+     */
+    @PostConstruct
+    void start() {
+        dispatched = customerRepository.getModificationCount();
+        heartbeat = System.currentTimeMillis();
+        dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "change-stream");
+            t.setDaemon(true);
+            return t;
+        });
+        dispatcher.scheduleWithFixedDelay(() -> {
+            try {
+                dispatch();
+            } catch(RuntimeException e) {
+                System.err.println("change stream dispatch failed: " + e);
+            }
+        }, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the dispatcher thread and close all subscribers.
+     */
+    @PreDestroy
+    void stop() {
+        dispatcher.shutdownNow();
+        subscribers.forEach(Subscriber::close);
+    }
+
+    /**
+     * Subscribe request to changes following sequence number {@code since}. The request
+     * is put into async mode, the response is written by the dispatcher thread and by
+     * container threads when the connection becomes writable.
+     *
+     * @param request HTTP request of the subscriber, must support async processing.
+     * @param response HTTP response events are written to.
+     * @param since sequence number of the last change known to the subscriber, the
+     * current modification count if null.
+     * @throws IOException when the response's output stream cannot be obtained.
+     */
+    void subscribe( HttpServletRequest request, HttpServletResponse response, Long since ) throws IOException {
+        response.setStatus( HttpStatus.OK.value() );
+        response.setContentType( MediaType.TEXT_EVENT_STREAM_VALUE );
+        response.setCharacterEncoding( StandardCharsets.UTF_8.name() );
+        response.setHeader( "Cache-Control", "no-cache" );
+        AsyncContext async = request.startAsync();
+        async.setTimeout( 0 );	// closed by the client, by heartbeats failing or when dropped
+        Subscriber subscriber = new Subscriber( async, response.getOutputStream(),
+                since != null ? since : customerRepository.getModificationCount() );
+        async.addListener( subscriber );
+        subscribers.add( subscriber );
+        // container calls onWritePossible() once the connection is writable
+        subscriber.out.setWriteListener( subscriber );
+    }
+
+    /**
+     * Returns the number of current subscribers.
+     *
+     * @return number of subscribers.
+     */
+    int subscribers() {
+        return subscribers.size();
+    }
+
+
+    /*
+        Private methods
+     */
+
+    // called periodically by the dispatcher thread
+    private void dispatch() {
+        long now = System.currentTimeMillis();
+        long seq = customerRepository.getModificationCount();
+        if(subscribers.isEmpty()) {
+            dispatched = seq;
+            heartbeat = now;
+            return;
+        }
+        long from = dispatched;
+        byte[] events = null;
+        if(seq != dispatched) {
+            List<CustomerRepository.Change> changes = customerRepository.findChangesSince( dispatched, BATCH );
+            if(changes == null) {
+                from = -1;	// fell behind: no shared batch, each subscriber catches up or resyncs
+                dispatched = seq;
+            } else if(! changes.isEmpty()) {
+                events = render( changes );
+                dispatched = changes.get( changes.size() - 1 ).getSeq();
+            }
+        }
+        boolean beat = now - heartbeat >= heartbeatSeconds * 1000;
+        if(beat) heartbeat = now;
+        for(Subscriber subscriber: subscribers) {
+            subscriber.dispatch( from, dispatched, events, beat, now );
+        }
+    }
+
+    // render changes as events
+    private byte[] render( List<CustomerRepository.Change> changes ) {
+        try( ByteArrayBuilder bytes = new ByteArrayBuilder( 256 * changes.size() );
+             JsonGenerator generator = objectMapper.getFactory().createGenerator( bytes, JsonEncoding.UTF8 ) ) {
+            generator.setRootValueSeparator( null );
+            for(CustomerRepository.Change change: changes) {
+                generator.writeRaw( "id: " + change.getSeq() + "\nevent: "
+                        + change.getType().name().toLowerCase( Locale.ROOT ) + "\ndata: " );
+                CustomersJsonWriter.writeChange( generator, change );
+                generator.writeRaw( "\n\n" );
+            }
+            generator.flush();
+            return bytes.toByteArray();
+        } catch(IOException e) {
+            throw new IllegalStateException( "rendering changes failed", e );
+        }
+    }
+
+    /**
+     * Subscriber connection, written by the dispatcher thread and by container threads
+     * calling {@link #onWritePossible()}, both synchronized on the subscriber.
+     */
+    private final class Subscriber implements WriteListener, AsyncListener {
+        final AsyncContext async;
+        final ServletOutputStream out;
+        // sequence number of the last change written
+        private long cursor;
+        // time the connection stopped taking bytes, 0 while it is writable
+        private long blockedSince = 0;
+        private boolean started = false;
+        private boolean closed = false;
+
+        Subscriber( AsyncContext async, ServletOutputStream out, long cursor ) {
+            this.async = async;
+            this.out = out;
+            this.cursor = cursor;
+        }
+
+        // hand over events of changes (from, to], catch up individually when not at from
+        synchronized void dispatch( long from, long to, byte[] events, boolean beat, long now ) {
+            if(closed || ! started) return;
+            if(blockedSince != 0) {
+                if(now - blockedSince > dropAfterMillis) close();	// too slow, writers never wait
+                return;
+            }
+            try {
+                if(events != null && cursor == from) {
+                    cursor = to;
+                    write( events );
+                } else if(cursor < to || from < 0) {
+                    catchUp();
+                } else if(beat) {
+                    write( HEARTBEAT );
+                }
+            } catch(IOException e) {
+                close();
+            }
+        }
+
+        // connection became writable (first time after subscribing or after it was blocked)
+        @Override
+        public synchronized void onWritePossible() throws IOException {
+            if(closed) return;
+            blockedSince = 0;
+            if(! started) {
+                started = true;
+                write( PREAMBLE );
+            }
+            catchUp();
+        }
+
+        @Override
+        public void onError( Throwable t ) {
+            close();
+        }
+
+        @Override
+        public synchronized void onComplete( AsyncEvent event ) {
+            closed();
+        }
+
+        @Override
+        public void onTimeout( AsyncEvent event ) {
+            close();
+        }
+
+        @Override
+        public void onError( AsyncEvent event ) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync( AsyncEvent event ) { }
+
+        synchronized void close() {
+            if(closed) return;
+            closed();
+            async.complete();
+        }
+
+        // write changes after cursor from the change log while the connection takes them
+        private void catchUp() throws IOException {
+            while(! closed && blockedSince == 0) {
+                List<CustomerRepository.Change> changes = customerRepository.findChangesSince( cursor, BATCH );
+                if(changes == null) {
+                    write( RESYNC );
+                    close();
+                } else if(changes.isEmpty()) {
+                    return;
+                } else {
+                    cursor = changes.get( changes.size() - 1 ).getSeq();
+                    write( render( changes ) );
+                }
+            }
+        }
+
+        // write without blocking, the container buffers what the connection does not take
+        private void write( byte[] bytes ) throws IOException {
+            out.write( bytes );
+            if(out.isReady()) out.flush();
+            // not ready: the container calls onWritePossible() when buffered bytes are sent
+            if(! out.isReady()) blockedSince = System.currentTimeMillis();
+        }
+
+        private void closed() {
+            closed = true;
+            subscribers.remove( this );
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package de.freerider.restapi;
+
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Validation of customer JSON objects and the batch inserts and updates behind POST and
+ * PUT /customers, shared by the servlet and the reactive controller so that both answer
+ * with the same status codes and rejected objects.
+ */
+final class CustomerBatches {
+
+    private CustomerBatches() { }
+
+    /**
+     * Insert customers in one pass with {@link CustomerRepository#saveAllIfAbsent(Iterable)}
+     * after all objects were validated.
+     *
+     * @param customerRepository repository customers are inserted into.
+     * @param dtos JSON objects of customers.
+     * @return 201 (created) with no body, 400 (bad request) with the invalid objects or
+     * 409 (conflict) with the objects whose id was already present.
+     */
+    static ResponseEntity<List<?>> insert( CustomerRepository customerRepository, List<CustomerJsonDTO> dtos ) {
+        List<Customer> acceptedCustomers = new ArrayList<>();
+        Map<Customer, CustomerJsonDTO> sources = new IdentityHashMap<>();
+        List<CustomerJsonDTO> badRequestedCustomers = new ArrayList<>();
+        for( CustomerJsonDTO dto : dtos ) {
+            Optional<Customer> customer = accept(dto);
+            if(!customer.isEmpty()) {
+                acceptedCustomers.add(customer.get());
+                sources.put(customer.get(), dto);
+            }
+            else {
+                badRequestedCustomers.add(dto);
+            }
+        }
+        //
+        if(!badRequestedCustomers.isEmpty()) {
+            return new ResponseEntity<>( badRequestedCustomers, HttpStatus.BAD_REQUEST );
+        }
+        // insert customers with new ids in one pass, customers without id receive an id when saved
+        List<Customer> conflicts = customerRepository.saveAllIfAbsent(acceptedCustomers);
+        if(!conflicts.isEmpty()) {
+            List<CustomerJsonDTO> rejectedCustomers = new ArrayList<>(conflicts.size());
+            for(Customer customer: conflicts) {
+                rejectedCustomers.add(sources.get(customer));
+            }
+            return new ResponseEntity<>( rejectedCustomers, HttpStatus.CONFLICT );
+        }
+        return new ResponseEntity<>( null, HttpStatus.CREATED );
+    }
+
+    /**
+     * Update customers in one atomic batch with {@link CustomerRepository#updateAll(Iterable)}
+     * after all objects were validated.
+     *
+     * @param customerRepository repository customers are updated in.
+     * @param dtos JSON objects of customers.
+     * @return 202 (accepted) with an empty array, 404 (not found) with objects missing an id
+     * or whose id was not found, or 409 (conflict) with invalid objects, which takes precedence.
+     */
+    static ResponseEntity<List<?>> update( CustomerRepository customerRepository, List<CustomerJsonDTO> dtos ) {
+        // validate all objects before any update is applied
+        HttpStatus[] rejected = new HttpStatus[dtos.size()];
+        List<Customer> updates = new ArrayList<>();
+        Map<Customer, Integer> positions = new IdentityHashMap<>();
+        for( int i = 0; i < dtos.size(); i++ ) {
+            Optional<Customer> customer = accept(dtos.get(i));
+            if(customer.isEmpty()) {
+                rejected[i] = HttpStatus.CONFLICT;
+            }
+            else if(customer.get().getId() < 0) {
+                rejected[i] = HttpStatus.NOT_FOUND;     // id missing
+            }
+            else {
+                updates.add(customer.get());
+                positions.put(customer.get(), i);
+            }
+        }
+        // apply accepted updates in one batch, customers whose id is not found are returned
+        for(Customer customer: customerRepository.updateAll(updates)) {
+            rejected[positions.get(customer)] = HttpStatus.NOT_FOUND;
+        }
+        // rejected objects in request order, 409 takes precedence over 404
+        HttpStatus status = HttpStatus.ACCEPTED;
+        List<CustomerJsonDTO> rejectedCustomers = new ArrayList<>();
+        for( int i = 0; i < dtos.size(); i++ ) {
+            if(rejected[i] != null) {
+                rejectedCustomers.add(dtos.get(i));
+                if(status != HttpStatus.CONFLICT) status = rejected[i];
+            }
+        }
+        return new ResponseEntity<>( rejectedCustomers, status ); // status 202, 404 or 409
+    }
+
+    /**
+     * Validate JSON object and create customer from it.
+     *
+     * @param dto JSON object of customer.
+     * @return customer, empty if the id is invalid or the name is missing.
+     */
+    static Optional<Customer> accept( CustomerJsonDTO dto ) {
+        Customer customer = new Customer();
+
+        // id remains unassigned when missing or empty, it is assigned when the customer is saved
+        String id = dto.getId();
+        if(id != null && id.trim().length() > 0) {
+            try {
+                long parsedId = Long.parseLong(id.trim());
+                if(parsedId < 0) return Optional.empty();
+                customer.setId(parsedId);
+            } catch(NumberFormatException e) {
+                return Optional.empty();
+            }
+        }
+
+        if(dto.getFirst() != null && dto.getName() != null) {
+            customer.setName(dto.getFirst(), dto.getName());
+        }
+
+        if(dto.getContacts() != null) {
+            String[] contacts = dto.getContacts().trim().split("[ ; ][ ;][; ][;]");
+            for (String contact : contacts) {
+                customer.addContact(contact);
+            }
+        }
+
+        if(customer.getName().equals("")) return Optional.empty();
+        return Optional.of(customer);
+    }
+}
@@ -0,0 +1,72 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Data transfer object of a customer in JSON request bodies. Jackson binds JSON
+ * objects directly into its fields, no intermediate {@code Map<String, Object>}
+ * with boxed values is built. Attributes keep the raw JSON values as strings,
+ * they are validated when a Customer is created from the object:
+ * <pre>{@code
+ * { "id": "1", "name": "Meyer", "first": "Eric", "contacts": "eric98@yahoo.com; (030) 3945-642298" }
+ * }</pre>
+ * Rejected objects are returned as received, absent attributes are omitted.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+class CustomerJsonDTO {
+
+    // id as passed, missing or empty for customers without id
+    @JsonProperty("id")
+    private String id;
+
+    // lastName
+    @JsonProperty("name")
+    private String name;
+
+    // firstName
+    @JsonProperty("first")
+    private String first;
+
+    // contacts separated by ";"
+    @JsonProperty("contacts")
+    private String contacts;
+
+    /**
+     * Default constructor used by Jackson.
+     */
+    CustomerJsonDTO() { }
+
+    /**
+     * Constructor.
+     *
+     * @param id id, null or empty if missing.
+     * @param name lastName.
+     * @param first firstName.
+     * @param contacts contacts separated by ";".
+     */
+    CustomerJsonDTO( String id, String name, String first, String contacts ) {
+        this.id = id;
+        this.name = name;
+        this.first = first;
+        this.contacts = contacts;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getFirst() {
+        return first;
+    }
+
+    String getContacts() {
+        return contacts;
+    }
+}
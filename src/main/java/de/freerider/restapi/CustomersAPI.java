@@ -1,13 +1,17 @@
 package de.freerider.restapi;
 
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import io.swagger.annotations.ApiParam;
 import io.swagger.v3.oas.annotations.Operation;
@@ -25,13 +29,33 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
  * - GET /customers			- return JSON data for all customer in the repository,
  * 							  status: 200 OK.
  *
+ * - GET /customers?limit=n&after=id - return JSON data for one page of customers
+ * 							  in id order, status: 200 OK, 400 bad request.
+ *
+ * - GET /customers?name=prefix - return JSON data for customers with last- or first
+ * 							  name starting with prefix, status: 200 OK, 400 bad request.
+ *
  * - GET /customers/{id}	- return JSON data for customer with id,
  * 							  status: 200 OK, 404 not found.
  *
+ * - GET /customers/by-contact?contact=c - return JSON data for customers having
+ * 							  contact c (email, phone), status: 200 OK, 404 not found.
+ *
+ * - GET /customers/changes?since=seq - return changes of the repository following
+ * 							  sequence number seq, status: 200 OK, 400 bad request,
+ * 							  410 gone when changes are no longer retained.
+ *
+ * - GET /customers/changes/stream?since=seq - push changes following sequence number
+ * 							  seq as Server-Sent Events, status: 200 OK, 400 bad request.
+ *
  * - POST /customers		- create new objects in the repository from JSON objects
  * 							  passed with the request,
  * 							  status: 201 created, 409 conflict, 400 bad request.
  *
+ * - POST /customers/import	- import large JSON arrays of objects passed with the
+ * 							  request in chunks, progress is streamed as NDJSON,
+ * 							  status: 200 OK.
+ *
  * - PUT /customers			- updated existing objects in the repository from JSON
  * 							  objects passed with the request,
  * 							  status: 202 accepted, 404 not found, 400 bad request.
@@ -39,6 +63,15 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
  * - DELETE /customers/{id}	- delete customer with id,
  * 							  status: 202 accepted, 404 not found, 400 bad request.
  *
+ * GET responses carry a strong ETag derived from the repository's modification count
+ * (collections) or the customer's version (single customer). GET requests with a
+ * matching If-None-Match header are answered with status 304 not modified and no body.
+ *
+ * JSON data is exchanged as text JSON by default, or in the binary formats CBOR
+ * (application/cbor) and Smile (application/x-jackson-smile) negotiated by the Accept
+ * and Content-Type headers, see WireFormats. Server-Sent Events and import progress are
+ * always text.
+ *
  * @author sgra64
  *
  */
@@ -53,8 +86,24 @@ public interface CustomersAPI {
 
     /**
      * GET /customers
+     * GET /customers?limit={limit}&after={id}
+     *
+     * Customers are streamed from the repository directly into the response body,
+     * the collection is never materialized as a whole.
      *
-     * @return JSON Array with customers (compact).
+     * With {@code limit}, one page of at most {@code limit} customers with ids greater
+     * than {@code after} is returned in ascending id order. When more customers may
+     * follow, the id to pass as {@code after} for the next page is returned in the
+     * {@code X-Next-Cursor} response header.
+     *
+     * With {@code name}, customers whose last- or first name starts with {@code name}
+     * (case-insensitive) are returned ordered by name, at most {@code limit}.
+     *
+     * @param name name prefix to search customers by, no name search if absent.
+     * @param limit maximum number of customers on page, all customers if absent.
+     * @param after cursor: id of last customer of previous page, first page if absent.
+     * @param response HTTP response the JSON Array with customers (compact) is written to.
+     * @throws IOException when writing the response fails.
      */
 
     /*
@@ -79,16 +128,80 @@ public interface CustomersAPI {
     @RequestMapping(
             method = RequestMethod.GET,
             value = "",	// relative to interface @RequestMapping
-            produces = { "application/json" }
+            produces = { "application/json", "application/cbor", "application/x-jackson-smile" }
     )
     //
-    ResponseEntity<List<?>> getCustomers();
+    void getCustomers(
+            @RequestParam(value = "name", required = false)
+            @ApiParam(value = "Prefix of last- or first name")
+                    String name,
+            @RequestParam(value = "limit", required = false)
+            @ApiParam(value = "Maximum number of customers on page")
+                    Integer limit,
+            @RequestParam(value = "after", required = false)
+            @ApiParam(value = "Cursor: id of last customer of previous page")
+                    Long after,
+            HttpServletResponse response
+    ) throws IOException;
+
+
+    /**
+     * GET /customers/changes/stream?since={seq}
+     *
+     * Subscribe to changes of the repository pushed as Server-Sent Events as they happen,
+     * one event per change named after its type (save, delete, clear) with the change's
+     * sequence number as event id and the change in JSON as data (as for GET /customers/changes).
+     * Changes following {@code since}, or following the {@code Last-Event-ID} header sent
+     * by reconnecting clients, are pushed first, only new changes if both are absent.
+     *
+     * Subscribers that cannot keep up are dropped. A subscriber that fell behind the retained
+     * changes receives a {@code resync} event and the stream ends: it must read all customers
+     * again and subscribe with the {@code X-Change-Seq} header of that read.
+     *
+     * @param since sequence number of last change known to the subscriber.
+     * @param request HTTP request put into async mode, no thread is held per subscriber.
+     * @param response HTTP response the events are written to,
+     * status: 200 OK, 400 bad request for an invalid Last-Event-ID.
+     * @throws IOException when the response cannot be written.
+     */
+
+    /*
+     * Swagger API doc annotations:
+     */
+    @Operation(
+            summary = "Push changes of customers as Server-Sent Events.",
+            description = "Push changes of customers in repository as Server-Sent Events as they happen.",
+            tags={ "customers-controller" }
+    )
+
+    /*
+     * Spring REST Controller annotation:
+     */
+    @RequestMapping(
+            method=RequestMethod.GET,
+            value="changes/stream",	// relative to interface @RequestMapping
+            produces={ "text/event-stream" }
+    )
+    //
+    void streamChanges(
+            @RequestParam(value = "since", required = false)
+            @ApiParam(value = "Sequence number of last change known")
+                    Long since,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException;
 
 
     /**
      * GET /customers/{id}
      *
-     * @return JSON Array with customers (compact).
+     * Return customer with id. The JSON bytes of customers are cached in the repository,
+     * repeated requests write the cached bytes without serializing the customer again.
+     *
+     * @param id id of customer.
+     * @param response HTTP response the JSON Array with the customer (compact) is written to,
+     * status: 200 OK, 404 not found.
+     * @throws IOException when writing the response fails.
      */
 
     /*
@@ -106,14 +219,101 @@ public interface CustomersAPI {
     @RequestMapping(
             method=RequestMethod.GET,
             value="{id}",	// relative to interface @RequestMapping
-            produces={ "application/json" }
+            produces={ "application/json", "application/cbor", "application/x-jackson-smile" }
     )
     //
-    ResponseEntity<?> getCustomer(
+    void getCustomer(
             @PathVariable("id")
             @ApiParam(value = "Customer id", required = true)
-                    long id
-    );
+                    long id,
+            HttpServletResponse response
+    ) throws IOException;
+
+
+    /**
+     * GET /customers/by-contact?contact={contact}
+     *
+     * Return customers that have the given contact (email, phone number). Emails are
+     * matched ignoring case, phone numbers by their digits only.
+     *
+     * @param contact contact to look up.
+     * @param response HTTP response the JSON Array with customers (compact) is written to,
+     * status: 200 OK, 304 not modified, 404 not found, 400 bad request for an empty contact.
+     * @throws IOException when writing the response fails.
+     */
+
+    /*
+     * Swagger API doc annotations:
+     */
+    @Operation(
+            summary = "Return customers with contact from repository.",
+            description = "Return customers with contact (email, phone) from repository.",
+            tags={ "customers-controller" }
+    )
+
+    /*
+     * Spring REST Controller annotation:
+     */
+    @RequestMapping(
+            method=RequestMethod.GET,
+            value="by-contact",	// relative to interface @RequestMapping
+            produces={ "application/json", "application/cbor", "application/x-jackson-smile" }
+    )
+    //
+    void getCustomersByContact(
+            @RequestParam("contact")
+            @ApiParam(value = "Contact (email, phone)", required = true)
+                    String contact,
+            HttpServletResponse response
+    ) throws IOException;
+
+
+    /**
+     * GET /customers/changes?since={seq}&limit={limit}
+     *
+     * Return changes of the repository (saved, deleted customers) following sequence number
+     * {@code since} as JSON array in sequence order, saved customers embedded with their
+     * current state. A consumer syncs incrementally by passing the {@code seq} of the last
+     * change received as {@code since} of the next request. The {@code X-Change-Seq} header
+     * of GET /customers is the sequence number to start from after reading all customers.
+     *
+     * Only the most recent changes are retained. A consumer that fell behind receives status
+     * 410 (gone) and must read all customers again with GET /customers.
+     *
+     * @param since sequence number of last change known to the consumer.
+     * @param limit maximum number of changes returned, at most 10,000 if absent.
+     * @param response HTTP response the JSON Array with changes is written to,
+     * status: 200 OK, 400 bad request, 410 gone.
+     * @throws IOException when writing the response fails.
+     */
+
+    /*
+     * Swagger API doc annotations:
+     */
+    @Operation(
+            summary = "Return changes of customers in repository.",
+            description = "Return changes of customers in repository following sequence number since.",
+            tags={ "customers-controller" }
+    )
+
+    /*
+     * Spring REST Controller annotation:
+     */
+    @RequestMapping(
+            method=RequestMethod.GET,
+            value="changes",	// relative to interface @RequestMapping
+            produces={ "application/json", "application/cbor", "application/x-jackson-smile" }
+    )
+    //
+    void getChanges(
+            @RequestParam("since")
+            @ApiParam(value = "Sequence number of last change known", required = true)
+                    long since,
+            @RequestParam(value = "limit", required = false)
+            @ApiParam(value = "Maximum number of changes")
+                    Integer limit,
+            HttpServletResponse response
+    ) throws IOException;
 
 
     /**
@@ -130,7 +330,7 @@ public interface CustomersAPI {
      * accepted. Partial acceptance of objects from the request is possible, but error 409 is
      * returned with the array of rejected objects.
      *
-     * @param jsonMap array of maps with raw JSON {@code <key,obj>}-data.
+     * @param dtos array of JSON objects bound to {@link CustomerJsonDTO}.
      * @return JSON array with the rejected JSON objects, empty array [] if all objects were accepted.
      */
 
@@ -151,7 +351,54 @@ public interface CustomersAPI {
             value = ""	// relative to interface @RequestMapping
     )
     //
-    public ResponseEntity<List<?>> postCustomers( @RequestBody Map<String, Object>[] jsonMap );
+    public ResponseEntity<List<?>> postCustomers( @RequestBody CustomerJsonDTO[] dtos );
+
+
+    /**
+     * POST /customers/import
+     *
+     * Import customers from a JSON array of objects of any size passed in the request body.
+     * The body is parsed element by element and customers are inserted in chunks, neither
+     * the body nor the imported customers are held in memory as a whole. Objects are
+     * accepted like with POST /customers: invalid objects are rejected with 400, objects
+     * with ids already present with 409, the import continues with the next object.
+     *
+     * Status 200 (OK) is returned and the response is streamed as newline-delimited JSON
+     * while the import runs: one line per rejected object, one progress line per chunk
+     * and a last line with the totals:
+     * <pre>{@code
+     * {"status":409,"customer":{"id":"1","name":"Meyer","first":"Eric"}}
+     * {"read":1000,"imported":999,"rejected":1}
+     * {"read":1500,"imported":1499,"rejected":1,"done":true}
+     * }</pre>
+     * A malformed body ends the import with a line {@code {"error":"..."}} instead, customers
+     * read before remain imported.
+     *
+     * @param request HTTP request with the JSON array of customers in its body.
+     * @param response HTTP response progress and rejections are written to.
+     * @throws IOException when reading the request or writing the response fails.
+     */
+
+    /*
+     * Swagger API doc annotations:
+     */
+    @Operation(
+            summary = "Import customers into repository.",
+            description = "Import large JSON arrays of customers into repository, progress is streamed as NDJSON.",
+            tags={ "customers-controller" }
+    )
+
+    /*
+     * Spring REST Controller annotation:
+     */
+    @RequestMapping(
+            method = RequestMethod.POST,
+            value = "import",	// relative to interface @RequestMapping
+            consumes = { "application/json", "application/cbor", "application/x-jackson-smile" },
+            produces = { "application/x-ndjson" }
+    )
+    //
+    void importCustomers( HttpServletRequest request, HttpServletResponse response ) throws IOException;
 
 
     /**
@@ -168,7 +415,7 @@ public interface CustomersAPI {
      * attributes). Error 409 (conflict) is returned for errors other than an object (id) was not
      * found along with the array of rejected objects.
      *
-     * @param jsonMap array of maps with raw JSON {@code <key,obj>}-data.
+     * @param dtos array of JSON objects bound to {@link CustomerJsonDTO}.
      * @return JSON array with the rejected JSON objects, empty array [] if all updates were accepted.
      */
 
@@ -189,7 +436,7 @@ public interface CustomersAPI {
             value = ""	// relative to interface @RequestMapping
     )
     //
-    public ResponseEntity<List<?>> putCustomers( @RequestBody Map<String, Object>[] jsonMap );
+    public ResponseEntity<List<?>> putCustomers( @RequestBody CustomerJsonDTO[] dtos );
 
 
     /**
@@ -223,11 +470,4 @@ public interface CustomersAPI {
     //
     public ResponseEntity<?> deleteCustomer( @PathVariable("id") long id );
 
-
-    /*
-     * Alternative using DTO serialization.
-     */
-//	@RequestMapping( method = RequestMethod.POST, value = "" )
-//	public ResponseEntity<List<?>> postCustomers( @RequestBody CustomerJsonDTO[] dtos );
-
 }
\ No newline at end of file
@@ -1,30 +1,52 @@
 package de.freerider.restapi;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import de.freerider.datamodel.Customer;
 
 import de.freerider.repository.CustomerRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 class CustomersController implements CustomersAPI {
 
+    // largest page size accepted for GET /customers?limit=
+    private static final int MAX_PAGE_SIZE = 10_000;
+    // response header carrying the cursor of the next page
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    // number of customers inserted at once by POST /customers/import
+    private static final int IMPORT_CHUNK = 1_000;
+    // response header carrying the change sequence number customers were read at
+    private static final String CHANGE_SEQ_HEADER = "X-Change-Seq";
+
     @Autowired
     private ApplicationContext context;
     //
@@ -34,6 +56,12 @@ class CustomersController implements CustomersAPI {
     //
     @Autowired
     private CustomerRepository customerRepository;
+    //
+    @Autowired
+    private ChangeStream changeStream;
+    //
+    @Autowired
+    private WireFormats wireFormats;
 
     /**
      * Constructor.
@@ -48,49 +76,204 @@ class CustomersController implements CustomersAPI {
 
     /**
      * GET /customers
-     * @return JSON Array with customers (compact).
+     * GET /customers?limit={limit}&after={id}
+     *
+     * Customers are streamed from the repository into the response with a JsonGenerator.
+     * Memory use does not depend on the number of customers and the first bytes are
+     * sent as soon as the generator's buffer fills.
+     *
+     * With {@code limit}, one page of customers following id {@code after} is returned
+     * and the cursor for the next page is passed in the {@code X-Next-Cursor} header.
+     * With {@code name}, customers are searched by name prefix in the repository's name index.
+     *
+     * The ETag is the repository's modification count read before any customer, a request
+     * with matching {@code If-None-Match} is answered with 304 before customers are read.
+     * The count is also passed in the {@code X-Change-Seq} header, consumers of
+     * GET /customers/changes continue from there.
+     *
+     * Customers are written as JSON, CBOR or Smile as negotiated by {@code Accept}, see
+     * {@link WireFormats}. ETags of binary formats carry the format's name.
+     *
+     * @param name name prefix, no name search if null.
+     * @param limit maximum number of customers on page, all customers if null.
+     * @param after id of last customer of previous page, first page if null.
+     * @param response HTTP response the JSON Array with customers (compact) is written to.
+     * @throws IOException when writing the response fails.
      */
     @Override
-    public ResponseEntity<List<?>> getCustomers() {
-        ResponseEntity<List<?>> re = null;
-        System.err.println( request.getMethod() + " " + request.getRequestURI() );
-        try {
-            ArrayNode arrayNode = customersAsJSON();
-            ObjectReader reader = objectMapper.readerFor(new TypeReference<List<ObjectNode>>() { } );
-            List<String> list = reader.readValue( arrayNode );
-            //
-            re = new ResponseEntity<>( list, HttpStatus.OK );
+    public void getCustomers( String name, Integer limit, Long after, HttpServletResponse response ) throws IOException {
+        if((limit != null && (limit <= 0 || limit > MAX_PAGE_SIZE)) || (name != null && name.trim().length() == 0)) {
+            response.setStatus( HttpStatus.BAD_REQUEST.value() );
+            return;
+        }
+        // read before customers: customers read afterwards reflect at least all counted changes
+        long seq = customerRepository.getModificationCount();
+        MediaType format = negotiate( response );
+        String etag = etag( seq, format );
+        if(notModified( response, etag )) {
+            return;
+        }
+        response.setHeader( HttpHeaders.ETAG, etag );
+        response.setHeader( CHANGE_SEQ_HEADER, String.valueOf( seq ) );
+        Iterable<Customer> customers;
+        if(name != null) {
+            customers = customerRepository.findByNamePrefix( name, limit != null ? limit : MAX_PAGE_SIZE );
+        }
+        else if(limit != null) {
+            List<Customer> page = customerRepository.findPage( after != null ? after : -1, limit );
+            if(page.size() == limit) {
+                // page is full, more customers may follow
+                response.setHeader( NEXT_CURSOR_HEADER, String.valueOf( page.get( page.size() - 1 ).getId() ) );
+            }
+            customers = page;
+        }
+        else {
+            customers = customerRepository.findAll();
+        }
+        writeCustomers( response, format, customers );
+    }
 
-        } catch( IOException e ) {
-            re = new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    /**
+     * GET /customers/by-contact?contact={contact}
+     *
+     * Return customers that have the given contact, looked up in the repository's contact index.
+     * Found customers are tagged with the repository's modification count as for GET /customers.
+     *
+     * @param contact contact to look up.
+     * @param response HTTP response the JSON Array with customers (compact) is written to.
+     * @throws IOException when writing the response fails.
+     */
+    @Override
+    public void getCustomersByContact( String contact, HttpServletResponse response ) throws IOException {
+        if(contact == null || contact.trim().length() == 0) {
+            response.setStatus( HttpStatus.BAD_REQUEST.value() );
+            return;
+        }
+        MediaType format = negotiate( response );
+        String etag = etag( customerRepository.getModificationCount(), format );
+        // an unchanged modification count finds the same customers, skip the index lookup
+        if(notModified( response, etag )) {
+            return;
+        }
+        List<Customer> customers = customerRepository.findByContact( contact );
+        if(customers.isEmpty()) {
+            response.setStatus( HttpStatus.NOT_FOUND.value() );
+            return;
         }
-        return re;
+        response.setHeader( HttpHeaders.ETAG, etag );
+        writeCustomers( response, format, customers );
     }
 
     /**
-     * GET /customers/{id}
-     * @return JSON Array with customers (compact).
+     * GET /customers/changes?since={seq}&limit={limit}
+     *
+     * Changes are taken from the repository's bounded change log and streamed as JSON
+     * Array, 410 (gone) tells consumers that fell behind the log to resync.
+     *
+     * @param since sequence number of last change known to the consumer.
+     * @param limit maximum number of changes returned, MAX_PAGE_SIZE if null.
+     * @param response HTTP response the JSON Array with changes is written to.
+     * @throws IOException when writing the response fails.
      */
     @Override
-    public ResponseEntity<?> getCustomer( @PathVariable("id") long id ) {
-        ResponseEntity<?> re = null;
-        System.err.println( request.getMethod() + " " + request.getRequestURI() );
-        try {
-            ArrayNode arrayNode = customerAsJSON(id);
-            ObjectReader reader = objectMapper.readerFor(new TypeReference<List<ObjectNode>>() { } );
-            String customer = reader.readValue( arrayNode ).toString();
-            //
-            if(customer == "[]") {
-                re = new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+    public void getChanges( long since, Integer limit, HttpServletResponse response ) throws IOException {
+        if(limit != null && (limit <= 0 || limit > MAX_PAGE_SIZE)) {
+            response.setStatus( HttpStatus.BAD_REQUEST.value() );
+            return;
+        }
+        List<CustomerRepository.Change> changes = customerRepository.findChangesSince( since, limit != null ? limit : MAX_PAGE_SIZE );
+        if(changes == null) {
+            response.setStatus( HttpStatus.GONE.value() );
+            return;
+        }
+        MediaType format = negotiate( response );
+        response.setStatus( HttpStatus.OK.value() );
+        response.setContentType( format.toString() );
+        try( JsonGenerator generator = wireFormats.factory( format ).createGenerator( response.getOutputStream(), JsonEncoding.UTF8 ) ) {
+            generator.writeStartArray();
+            for(CustomerRepository.Change change: changes) {
+                CustomersJsonWriter.writeChange( generator, change );
             }
-            else {
-                re = new ResponseEntity<>( customer, HttpStatus.OK );
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * GET /customers/changes/stream?since={seq}
+     *
+     * The request is handed over to the ChangeStream, which pushes changes with non-blocking
+     * writes after this method returned.
+     *
+     * @param since sequence number of last change known to the subscriber, Last-Event-ID
+     * header or only new changes if null.
+     * @param request HTTP request put into async mode.
+     * @param response HTTP response the events are written to.
+     * @throws IOException when the response cannot be written.
+     */
+    @Override
+    public void streamChanges( Long since, HttpServletRequest request, HttpServletResponse response ) throws IOException {
+        String lastEventId = request.getHeader( "Last-Event-ID" );
+        if(since == null && lastEventId != null) {
+            try {
+                since = Long.valueOf( lastEventId.trim() );
+            } catch(NumberFormatException e) {
+                response.setStatus( HttpStatus.BAD_REQUEST.value() );
+                return;
             }
+        }
+        changeStream.subscribe( request, response, since );
+    }
 
-        } catch( IOException e ) {
-            re = new ResponseEntity<String>(HttpStatus.INTERNAL_SERVER_ERROR);
+    /**
+     * GET /customers/{id}
+     *
+     * The customer's JSON bytes are taken from the repository's cache, serialized only on
+     * a cache miss, and written to the response as JSON Array with the customer.
+     *
+     * The ETag is the customer's version in the repository. A request with matching
+     * {@code If-None-Match} is answered with 304 after looking up the version only.
+     *
+     * CBOR and Smile are written from the customer with the generator of the format, the
+     * cache holds JSON only. The ETag then is the version looked up before the customer.
+     *
+     * @param id id of customer.
+     * @param response HTTP response the JSON Array with the customer (compact) is written to.
+     * @throws IOException when writing the response fails.
+     */
+    @Override
+    public void getCustomer( long id, HttpServletResponse response ) throws IOException {
+        long version = customerRepository.findVersionById( id );
+        MediaType format = negotiate( response );
+        if(version != 0 && notModified( response, etag( version, format ) )) {
+            return;
+        }
+        if(!MediaType.APPLICATION_JSON.equals( format )) {
+            Optional<Customer> customer = customerRepository.findById( id );
+            if(customer.isEmpty()) {
+                response.setStatus( HttpStatus.NOT_FOUND.value() );
+                return;
+            }
+            response.setHeader( HttpHeaders.ETAG, etag( version, format ) );
+            writeCustomers( response, format, List.of( customer.get() ) );
+            return;
         }
-        return re;
+        JsonFactory factory = objectMapper.getFactory();
+        CustomerRepository.Serialized customer =
+                customerRepository.findSerializedById( id, c -> CustomersJsonWriter.toBytes( factory, c ) );
+        if(customer == null) {
+            response.setStatus( HttpStatus.NOT_FOUND.value() );
+            return;
+        }
+        // customer may have changed since its version was looked up
+        byte[] json = customer.getBytes();
+        response.setStatus( HttpStatus.OK.value() );
+        response.setHeader( HttpHeaders.ETAG, etag( customer.getVersion(), format ) );
+        response.setContentType( MediaType.APPLICATION_JSON_VALUE );
+        response.setContentLength( json.length + 2 );
+        OutputStream out = response.getOutputStream();
+        out.write( '[' );
+        out.write( json );
+        out.write( ']' );
     }
 
     /**
@@ -107,7 +290,10 @@ class CustomersController implements CustomersAPI {
      * accepted. Partial acceptance of objects from the request is possible, but error 409 is
      * returned with the array of rejected objects.
      *
-     * @param jsonMap array of maps with raw JSON {@code <key,obj>}-data.
+     * Accepted objects are inserted with {@link CustomerRepository#saveAllIfAbsent(Iterable)},
+     * which checks and inserts each id atomically in one pass over the batch.
+     *
+     * @param dtos array of JSON objects bound to {@link CustomerJsonDTO}.
      * @return JSON array with the rejected JSON objects, empty array [] if all objects were accepted.
      */
 
@@ -115,41 +301,67 @@ class CustomersController implements CustomersAPI {
      * Swagger API doc annotations:
      */
     @Override
-    public ResponseEntity<List<?>> postCustomers(Map<String, Object>[] jsonMap ) {
-        System.err.println( "POST /customers" );
-        if( jsonMap == null )
+    public ResponseEntity<List<?>> postCustomers( CustomerJsonDTO[] dtos ) {
+        if( dtos == null )
             return new ResponseEntity<>( null, HttpStatus.BAD_REQUEST );
-        //
-        List<Customer> acceptedCustomers = new ArrayList<>();
-        List<Map<String, Object>> rejectedCustomers = new ArrayList<>();
-        List<Map<String, Object>> badRequestedCustomers = new ArrayList<>();
-        for( Map<String, Object> kvpairs : jsonMap ) {
-            Optional<Customer> customer = accept(kvpairs);
-            if(!customer.isEmpty()) {
-                if(!customerRepository.existsById(customer.get().getId())) {
-                    acceptedCustomers.add(customer.get());
-                }
-                else {
-                    rejectedCustomers.add(kvpairs);
+        return CustomerBatches.insert( customerRepository, Arrays.asList( dtos ) );
+    }
+
+    /**
+     * POST /customers/import
+     *
+     * Import customers from a JSON array of any size, the array is read element by element
+     * with a JsonParser. Accepted customers are collected into chunks of {@code IMPORT_CHUNK}
+     * inserted with {@link CustomerRepository#saveAllIfAbsent(Iterable)}, rejected objects
+     * and progress are written to the response as newline-delimited JSON and flushed after
+     * each chunk. Memory use is bounded by the chunk size. The array may be sent as CBOR or
+     * Smile with the format's {@code Content-Type}, progress is written as JSON.
+     *
+     * @param request HTTP request with the JSON array of customers in its body.
+     * @param response HTTP response progress and rejections are written to.
+     * @throws IOException when reading the request or writing the response fails.
+     */
+    @Override
+    public void importCustomers( HttpServletRequest request, HttpServletResponse response ) throws IOException {
+        response.setStatus( HttpStatus.OK.value() );
+        response.setContentType( "application/x-ndjson" );
+        JsonFactory factory = objectMapper.getFactory();
+        try( JsonParser parser = wireFormats.factory( wireFormats.contentType( request.getContentType() ) ).createParser( request.getInputStream() );
+             JsonGenerator generator = factory.createGenerator( response.getOutputStream(), JsonEncoding.UTF8 ) ) {
+            generator.setRootValueSeparator( new SerializedString( "\n" ) );
+            long read = 0, rejected = 0;
+            List<Customer> chunk = new ArrayList<>( IMPORT_CHUNK );
+            Map<Customer, CustomerJsonDTO> sources = new IdentityHashMap<>();
+            try {
+                if(parser.nextToken() != JsonToken.START_ARRAY) throw new JsonParseException( parser, "JSON array expected" );
+                while(parser.nextToken() == JsonToken.START_OBJECT) {
+                    CustomerJsonDTO dto = objectMapper.readValue( parser, CustomerJsonDTO.class );
+                    read++;
+                    Optional<Customer> customer = CustomerBatches.accept(dto);
+                    if(customer.isEmpty()) {
+                        writeRejected( generator, HttpStatus.BAD_REQUEST, dto );
+                        rejected++;
+                        continue;
+                    }
+                    chunk.add(customer.get());
+                    sources.put(customer.get(), dto);
+                    if(chunk.size() == IMPORT_CHUNK) {
+                        rejected += importChunk( generator, chunk, sources );
+                        writeProgress( generator, read, rejected, false );
+                    }
                 }
+                if(parser.currentToken() != JsonToken.END_ARRAY) throw new JsonParseException( parser, "JSON object expected" );
+                rejected += importChunk( generator, chunk, sources );
+                writeProgress( generator, read, rejected, true );
+            } catch( JsonProcessingException e ) {
+                // customers read before the malformed part are imported
+                rejected += importChunk( generator, chunk, sources );
+                writeProgress( generator, read, rejected, false );
+                generator.writeStartObject();
+                generator.writeStringField( "error", e.getOriginalMessage() );
+                generator.writeEndObject();
             }
-            else {
-                badRequestedCustomers.add(kvpairs);
-            }
-        }
-        //
-        if(!badRequestedCustomers.isEmpty()) {
-            return new ResponseEntity<>( badRequestedCustomers, HttpStatus.BAD_REQUEST );
-        }
-        //
-        if(!rejectedCustomers.isEmpty()) {
-            return new ResponseEntity<>( rejectedCustomers, HttpStatus.CONFLICT );
         }
-        // save entities if no conflicts occurred
-        for(Customer customer: acceptedCustomers) {
-            customerRepository.save(customer);
-        }
-        return new ResponseEntity<>( null, HttpStatus.CREATED );
     }
 
     /**
@@ -166,7 +378,11 @@ class CustomersController implements CustomersAPI {
      * attributes). Error 409 (conflict) is returned for errors other than an object (id) was not
      * found along with the array of rejected objects.
      *
-     * @param jsonMap array of maps with raw JSON {@code <key,obj>}-data.
+     * All objects are validated before accepted updates are applied in one atomic batch
+     * ({@link CustomerRepository#updateAll(Iterable)}), a customer deleted concurrently is
+     * rejected with 404 instead of being recreated.
+     *
+     * @param dtos array of JSON objects bound to {@link CustomerJsonDTO}.
      * @return JSON array with the rejected JSON objects, empty array [] if all updates were accepted.
      */
 
@@ -174,9 +390,10 @@ class CustomersController implements CustomersAPI {
      * Swagger API doc annotations:
      */
     @Override
-    public ResponseEntity<List<?>> putCustomers(Map<String, Object>[] jsonMap ) {
-        System.err.println( "PUT /customers ");
-        return new ResponseEntity<>( null, HttpStatus.ACCEPTED ); // status 202
+    public ResponseEntity<List<?>> putCustomers( CustomerJsonDTO[] dtos ) {
+        if( dtos == null )
+            return new ResponseEntity<>( null, HttpStatus.BAD_REQUEST );
+        return CustomerBatches.update( customerRepository, Arrays.asList( dtos ) );
     }
 
     /**
@@ -196,9 +413,6 @@ class CustomersController implements CustomersAPI {
      */
     @Override
     public ResponseEntity<?> deleteCustomer( long id ) {
-
-        System.err.println( "DELETE /customers/" + id );
-
         if(id < 0) return new ResponseEntity<List<?>>( HttpStatus.BAD_REQUEST ); // status 400
         if(!customerRepository.existsById(id)) return new ResponseEntity<>( null, HttpStatus.NOT_FOUND ); // status 404
         customerRepository.deleteById(id);
@@ -209,68 +423,67 @@ class CustomersController implements CustomersAPI {
         Private methods
      */
 
-    private ArrayNode customersAsJSON() {
-        //
-        ArrayNode arrayNode = objectMapper.createArrayNode();
-        //
-        Iterable<Customer> customers = customerRepository.findAll();
-        if(customers != null) {
-            customers.forEach(c -> {
-                StringBuffer sb = new StringBuffer();
-                c.getContacts().forEach(contact -> sb.append(sb.length() == 0 ? "" : "; ").append(contact));
-                arrayNode.add(
-                        objectMapper.createObjectNode()
-                                .put("name", c.getLastName())
-                                .put("first", c.getFirstName())
-                                .put("contacts", sb.toString())
-                );
-            });
+    private void writeCustomers( HttpServletResponse response, MediaType format, Iterable<Customer> customers ) throws IOException {
+        response.setStatus( HttpStatus.OK.value() );
+        response.setContentType( format.toString() );
+        try( JsonGenerator generator = wireFormats.factory( format ).createGenerator( response.getOutputStream(), JsonEncoding.UTF8 ) ) {
+            CustomersJsonWriter.writeCustomers( generator, customers );
         }
-        return arrayNode;
     }
 
-    private ArrayNode customerAsJSON(long id) {
-        //
-        ArrayNode arrayNode = objectMapper.createArrayNode();
-        //
-        Optional<Customer> customer = customerRepository.findById(id);
-        if (!customer.isEmpty()) {
-            arrayNode.add(
-                    objectMapper.createObjectNode()
-                            .put("name", customer.get().getLastName())
-                            .put("first", customer.get().getFirstName())
-                            .put("contacts", customer.get().toString())
-            );
-        }
-        return arrayNode;
+    // wire format negotiated by Accept, responses vary by it
+    private MediaType negotiate( HttpServletResponse response ) {
+        response.setHeader( HttpHeaders.VARY, HttpHeaders.ACCEPT );
+        return wireFormats.negotiate( Collections.list( request.getHeaders( HttpHeaders.ACCEPT ) ) );
     }
 
-    private Optional<Customer> accept( Map<String, Object> kvpairs ) {
-        Customer customer = new Customer();
+    // strong ETag of a repository version or modification count, both exceed those of earlier processes,
+    // representations in binary formats are tagged with the format
+    private static String etag( long version, MediaType format ) {
+        return MediaType.APPLICATION_JSON.equals( format ) ? "\"" + version + "\"" : "\"" + version + "-" + format.getSubtype() + "\"";
+    }
 
-        if(kvpairs.containsKey("id")) {
-            customer.setId(Long.parseLong(kvpairs.get("id").toString()));
-        }
-        else {
-            // find next available id
-            long i = 0;
-            while(customerRepository.existsById(i)) i++;
-            customer.setId(i);
+    // true with status 304 and ETag set if If-None-Match lists etag or is "*", compared weakly (RFC 7232)
+    private boolean notModified( HttpServletResponse response, String etag ) {
+        for(Enumeration<String> headers = request.getHeaders( HttpHeaders.IF_NONE_MATCH ); headers.hasMoreElements(); ) {
+            for(String tag: headers.nextElement().split( "," )) {
+                tag = tag.trim();
+                if(tag.startsWith( "W/" )) tag = tag.substring( 2 );
+                if(tag.equals( "*" ) || tag.equals( etag )) {
+                    response.setStatus( HttpStatus.NOT_MODIFIED.value() );
+                    response.setHeader( HttpHeaders.ETAG, etag );
+                    return true;
+                }
+            }
         }
+        return false;
+    }
 
-        if(kvpairs.containsKey("first") && kvpairs.containsKey("name")) {
-            if(kvpairs.get("first") != null && kvpairs.get("name") != null)
-                customer.setName(kvpairs.get("first").toString(), kvpairs.get("name").toString());
+    // insert chunk, write rejected objects, returns number of rejected objects
+    private int importChunk( JsonGenerator generator, List<Customer> chunk, Map<Customer, CustomerJsonDTO> sources ) throws IOException {
+        List<Customer> conflicts = customerRepository.saveAllIfAbsent( chunk );
+        for(Customer customer: conflicts) {
+            writeRejected( generator, HttpStatus.CONFLICT, sources.get(customer) );
         }
+        chunk.clear();
+        sources.clear();
+        return conflicts.size();
+    }
 
-        if(kvpairs.containsKey("contacts")) {
-            String[] contacts = kvpairs.get("contacts").toString().trim().split("[ ; ][ ;][; ][;]");
-            for (String contact : contacts) {
-                customer.addContact(contact);
-            }
-        }
+    private void writeRejected( JsonGenerator generator, HttpStatus status, CustomerJsonDTO dto ) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField( "status", status.value() );
+        generator.writeObjectField( "customer", dto );
+        generator.writeEndObject();
+    }
 
-        if(customer == null || customer.getId() < 0 || customer.getName().equals("")) return Optional.empty();
-        return Optional.of(customer);
+    private void writeProgress( JsonGenerator generator, long read, long rejected, boolean done ) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField( "read", read );
+        generator.writeNumberField( "imported", read - rejected );
+        generator.writeNumberField( "rejected", rejected );
+        if(done) generator.writeBooleanField( "done", true );
+        generator.writeEndObject();
+        generator.flush();  // progress reaches the client while the import runs
     }
 }
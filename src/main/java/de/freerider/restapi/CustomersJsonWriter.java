@@ -0,0 +1,115 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+
+/**
+ * Writes customers as JSON directly to a Jackson {@link JsonGenerator} without
+ * building an intermediate JSON tree. Produces the same compact format as used
+ * for customers throughout the REST API:
+ * <pre>{@code
+ * { "name": "Meyer", "first": "Eric", "contacts": "eric98@yahoo.com; (030) 3945-642298" }
+ * }</pre>
+ */
+final class CustomersJsonWriter {
+
+    private CustomersJsonWriter() { }
+
+    /**
+     * Write customers as JSON array.
+     *
+     * @param generator generator JSON is written to.
+     * @param customers customers to write, may be null for an empty array.
+     * @throws IOException when writing to the underlying stream fails.
+     */
+    static void writeCustomers( JsonGenerator generator, Iterable<Customer> customers ) throws IOException {
+        generator.writeStartArray();
+        if(customers != null) {
+            for(Customer customer: customers) {
+                writeCustomer(generator, customer);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Write single customer as JSON object.
+     *
+     * @param generator generator JSON is written to.
+     * @param customer customer to write.
+     * @throws IOException when writing to the underlying stream fails.
+     */
+    static void writeCustomer( JsonGenerator generator, Customer customer ) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("name", customer.getLastName());
+        generator.writeStringField("first", customer.getFirstName());
+        generator.writeStringField("contacts", contacts(customer));
+        generator.writeEndObject();
+    }
+
+    /**
+     * Serialize single customer as JSON object into UTF-8 bytes, e.g. for caching.
+     *
+     * @param factory factory of the generator.
+     * @param customer customer to serialize.
+     * @return UTF-8 JSON bytes of customer.
+     * @throws UncheckedIOException when serializing fails.
+     */
+    static byte[] toBytes( JsonFactory factory, Customer customer ) {
+        try( ByteArrayBuilder bytes = new ByteArrayBuilder( 128 );
+             JsonGenerator generator = factory.createGenerator( bytes, JsonEncoding.UTF8 ) ) {
+            writeCustomer(generator, customer);
+            generator.flush();
+            return bytes.toByteArray();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write repository change as JSON object, saved customers are embedded with their
+     * current state:
+     * <pre>{@code
+     * { "seq": 42, "type": "save", "id": 1, "customer": { "name": "Meyer", ... } }
+     * { "seq": 43, "type": "delete", "id": 1 }
+     * { "seq": 44, "type": "clear" }
+     * }</pre>
+     *
+     * @param generator generator JSON is written to.
+     * @param change change to write.
+     * @throws IOException when writing to the underlying stream fails.
+     */
+    static void writeChange( JsonGenerator generator, CustomerRepository.Change change ) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("seq", change.getSeq());
+        generator.writeStringField("type", change.getType().name().toLowerCase(Locale.ROOT));
+        if(change.getType() != CustomerRepository.Change.Type.CLEAR) {
+            generator.writeNumberField("id", change.getId());
+        }
+        if(change.getCustomer() != null) {
+            generator.writeFieldName("customer");
+            writeCustomer(generator, change.getCustomer());
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Join contacts of customer into single String separated by {@code "; "}.
+     *
+     * @param customer customer with contacts.
+     * @return joined contacts, "" when customer has no contacts.
+     */
+    static String contacts( Customer customer ) {
+        StringBuilder sb = new StringBuilder();
+        customer.getContacts().forEach(contact -> sb.append(sb.length() == 0 ? "" : "; ").append(contact));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,216 @@
+package de.freerider.restapi;
+
+import de.freerider.repository.CustomerRepository;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+
+/**
+ * Reactive variant of the {@link CustomersAPI} for Spring WebFlux on Netty, served instead
+ * of the servlet controllers when the application runs with
+ * {@code spring.main.web-application-type=reactive}. Endpoints, parameters, status codes,
+ * ETags and JSON formats are the same as those of the {@link CustomersAPI}:
+ *
+ * - GET /customers, /customers?name=, /customers?limit=&after=
+ * - GET /customers/by-contact?contact=
+ * - GET /customers/changes?since=&limit=
+ * - GET /customers/changes/stream?since=
+ * - GET /customers/{id}
+ * - POST /customers, POST /customers/import
+ * - PUT /customers
+ * - DELETE /customers/{id}
+ *
+ * Customers are encoded by the controller into a {@code Flux<DataBuffer>}, a few customers
+ * per buffer, as the client takes them: Netty requests more customers from the repository
+ * only when the connection is writable (backpressure), a slow client holds no thread and
+ * no buffered collection. JSON arrays are written piecewise ({@code '['}, customers separated
+ * by commas, {@code ']'}), the JSON encoder of WebFlux would collect all customers first.
+ * Request bodies are decoded element by element from {@code Flux<CustomerJsonDTO>}.
+ */
+
+/*
+ * Refer to endpoint URL from swagger.properties, replaces: "/api/v1/customers"
+ */
+@RequestMapping( "${app.api.endpoints.customers}" )
+//
+public interface CustomersReactiveAPI {
+
+
+    /**
+     * GET /customers
+     * GET /customers?limit={limit}&after={id}
+     * GET /customers?name={prefix}
+     *
+     * Return customers as JSON array, or as newline-delimited JSON with
+     * {@code Accept: application/x-ndjson}, streamed with backpressure.
+     *
+     * @param name name prefix to search customers by, no name search if absent.
+     * @param limit maximum number of customers on page, all customers if absent.
+     * @param after cursor: id of last customer of previous page, first page if absent.
+     * @param accept values of the Accept header selecting JSON or newline-delimited JSON.
+     * @return customers with ETag, X-Change-Seq and X-Next-Cursor headers, 400 for invalid parameters.
+     */
+    @RequestMapping(
+            method=RequestMethod.GET,
+            value = "",	// relative to interface @RequestMapping
+            produces={ "application/json", "application/x-ndjson" }
+    )
+    ResponseEntity<Flux<DataBuffer>> getCustomers(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "after", required = false) Long after,
+            @RequestHeader(value = "Accept", required = false) List<String> accept
+    );
+
+
+    /**
+     * GET /customers/by-contact?contact={contact}
+     *
+     * Return customers that have the given contact.
+     *
+     * @param contact contact to look up.
+     * @param exchange exchange whose If-None-Match header is checked before the lookup.
+     * @return customers with ETag, 304 if unchanged, 404 if no customer has the contact.
+     */
+    @RequestMapping(
+            method=RequestMethod.GET,
+            value="by-contact",	// relative to interface @RequestMapping
+            produces={ "application/json" }
+    )
+    ResponseEntity<Flux<DataBuffer>> getCustomersByContact(
+            @RequestParam("contact") String contact,
+            ServerWebExchange exchange
+    );
+
+
+    /**
+     * GET /customers/changes?since={seq}&limit={limit}
+     *
+     * Return changes following sequence number {@code since} as JSON array.
+     *
+     * @param since sequence number of last change known to the consumer.
+     * @param limit maximum number of changes returned.
+     * @return changes, 410 (gone) if the consumer fell behind and must resync.
+     */
+    @RequestMapping(
+            method=RequestMethod.GET,
+            value="changes",	// relative to interface @RequestMapping
+            produces={ "application/json" }
+    )
+    ResponseEntity<List<CustomerRepository.Change>> getChanges(
+            @RequestParam("since") long since,
+            @RequestParam(value = "limit", required = false) Integer limit
+    );
+
+
+    /**
+     * GET /customers/changes/stream?since={seq}
+     *
+     * Push changes as Server-Sent Events in the format of the servlet change stream.
+     *
+     * @param since sequence number of last change known to the subscriber, only new changes if absent.
+     * @param lastEventId id of the last event received, used when {@code since} is absent.
+     * @return events until the client disconnects or falls behind, 400 for an invalid Last-Event-ID.
+     */
+    @RequestMapping(
+            method=RequestMethod.GET,
+            value="changes/stream",	// relative to interface @RequestMapping
+            produces={ "text/event-stream" }
+    )
+    ResponseEntity<Flux<ServerSentEvent<String>>> streamChanges(
+            @RequestParam(value = "since", required = false) Long since,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId
+    );
+
+
+    /**
+     * GET /customers/{id}
+     *
+     * Return JSON array with the customer.
+     *
+     * @param id id of customer.
+     * @return customer with ETag of its version, 404 if not found.
+     */
+    @RequestMapping(
+            method=RequestMethod.GET,
+            value="{id}",	// relative to interface @RequestMapping
+            produces={ "application/json" }
+    )
+    ResponseEntity<Flux<DataBuffer>> getCustomer(
+            @PathVariable("id") long id
+    );
+
+
+    /**
+     * POST /customers
+     *
+     * Add new customers from array of JSON objects, see {@link CustomersAPI#postCustomers}.
+     *
+     * @param dtos JSON objects decoded from the request body.
+     * @return 201 (created), 400 or 409 with rejected objects.
+     */
+    @RequestMapping(
+            method=RequestMethod.POST,
+            value = ""	// relative to interface @RequestMapping
+    )
+    Mono<ResponseEntity<List<?>>> postCustomers( @RequestBody Flux<CustomerJsonDTO> dtos );
+
+
+    /**
+     * POST /customers/import
+     *
+     * Import customers from a JSON array of any size in chunks, rejected objects and
+     * progress are emitted as newline-delimited JSON, see {@link CustomersAPI#importCustomers}.
+     *
+     * @param dtos JSON objects decoded from the request body as they arrive.
+     * @return rejected objects and progress.
+     */
+    @RequestMapping(
+            method=RequestMethod.POST,
+            value = "import",	// relative to interface @RequestMapping
+            produces={ "application/x-ndjson" }
+    )
+    Flux<Object> importCustomers( @RequestBody Flux<CustomerJsonDTO> dtos );
+
+
+    /**
+     * PUT /customers
+     *
+     * Update existing customers from array of JSON objects, see {@link CustomersAPI#putCustomers}.
+     *
+     * @param dtos JSON objects decoded from the request body.
+     * @return 202 (accepted), 404 or 409 with rejected objects.
+     */
+    @RequestMapping(
+            method=RequestMethod.PUT,
+            value = ""	// relative to interface @RequestMapping
+    )
+    Mono<ResponseEntity<List<?>>> putCustomers( @RequestBody Flux<CustomerJsonDTO> dtos );
+
+
+    /**
+     * DELETE /customers/{id}
+     *
+     * Delete existing customer by its id.
+     *
+     * @param id id of object to delete.
+     * @return status code: 202 (accepted), 404 (not found), 400 (bad request).
+     */
+    @RequestMapping(
+            method=RequestMethod.DELETE,
+            value = "{id}"	// relative to interface @RequestMapping
+    )
+    Mono<ResponseEntity<?>> deleteCustomer( @PathVariable("id") long id );
+}
@@ -0,0 +1,376 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reactive controller of the customers API, active in reactive web applications only.
+ * <p>
+ * Reads take customers from the in-memory repository on the event loop. Writes may wait
+ * for the write-ahead log to force records to disk and run on the bounded elastic
+ * scheduler, so that no event loop thread blocks. Subscribers of the change stream hold
+ * a cursor each and read the repository's change log when they can take more events:
+ * a subscriber on a slow connection does not buffer changes, it falls behind and receives
+ * a {@code resync} event once its changes have left the change log.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+class CustomersReactiveController implements CustomersReactiveAPI {
+
+    // largest page size accepted for GET /customers?limit=
+    private static final int MAX_PAGE_SIZE = 10_000;
+    // response header carrying the cursor of the next page
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    // number of customers inserted at once by POST /customers/import
+    private static final int IMPORT_CHUNK = 1_000;
+    // response header carrying the change sequence number customers were read at
+    private static final String CHANGE_SEQ_HEADER = "X-Change-Seq";
+    // number of customers encoded into one buffer of a response body
+    private static final int CUSTOMERS_PER_BUFFER = 64;
+    // maximum number of changes read from the change log at once by a subscriber
+    private static final int BATCH = 1_000;
+    private static final ServerSentEvent<String> RESYNC = ServerSentEvent.<String>builder().event("resync").data("{}").build();
+    private static final ServerSentEvent<String> HEARTBEAT = ServerSentEvent.<String>builder().comment("").build();
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.api.changes.poll-millis:50}")
+    private long pollMillis;
+
+    @Value("${app.api.changes.heartbeat-seconds:15}")
+    private long heartbeatSeconds;
+
+    // modification count whenever it changed, polled while there are subscribers
+    private Flux<Long> modifications;
+
+    // factory of generators writing customers of JSON responses, without separators between root values
+    private JsonFactory json;
+
+    /**
+     * Create the shared poller of the modification count and the factory of JSON generators.
+     */
+    @PostConstruct
+    void start() {
+        modifications = Flux.interval(Duration.ofMillis(pollMillis))
+                .map(tick -> customerRepository.getModificationCount())
+                .distinctUntilChanged()
+                .share();
+        json = objectMapper.getFactory().copy().setRootValueSeparator( null );
+    }
+
+    @Override
+    public ResponseEntity<Flux<DataBuffer>> getCustomers( String name, Integer limit, Long after, List<String> accept ) {
+        if((limit != null && (limit <= 0 || limit > MAX_PAGE_SIZE)) || (name != null && name.trim().length() == 0)) {
+            return ResponseEntity.badRequest().build();
+        }
+        // read before customers: customers read afterwards reflect at least all counted changes
+        long seq = customerRepository.getModificationCount();
+        boolean ndjson = ndjson( accept );
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag( etag( seq ) ).header( CHANGE_SEQ_HEADER, String.valueOf( seq ) )
+                .contentType( ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON );
+        if(name != null) {
+            return response.body( encode( Flux.defer( () -> Flux.fromIterable(
+                    customerRepository.findByNamePrefix( name, limit != null ? limit : MAX_PAGE_SIZE ) ) ), ndjson ) );
+        }
+        if(limit != null) {
+            List<Customer> page = customerRepository.findPage( after != null ? after : -1, limit );
+            if(page.size() == limit) {
+                // page is full, more customers may follow
+                response.header( NEXT_CURSOR_HEADER, String.valueOf( page.get( page.size() - 1 ).getId() ) );
+            }
+            return response.body( encode( Flux.fromIterable( page ), ndjson ) );
+        }
+        // customers are taken from the repository as the client requests them
+        return response.body( encode( Flux.defer( () -> {
+            Iterable<Customer> customers = customerRepository.findAll();
+            return customers != null ? Flux.fromIterable( customers ) : Flux.empty();
+        } ), ndjson ) );
+    }
+
+    @Override
+    public ResponseEntity<Flux<DataBuffer>> getCustomersByContact( String contact, ServerWebExchange exchange ) {
+        if(contact == null || contact.trim().length() == 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        String etag = etag( customerRepository.getModificationCount() );
+        // an unchanged modification count finds the same customers, skip the index lookup
+        if(exchange.checkNotModified( etag )) {
+            return ResponseEntity.status( HttpStatus.NOT_MODIFIED ).eTag( etag ).build();
+        }
+        List<Customer> customers = customerRepository.findByContact( contact );
+        if(customers.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().eTag( etag ).contentType( MediaType.APPLICATION_JSON ).body( encode( Flux.fromIterable( customers ), false ) );
+    }
+
+    @Override
+    public ResponseEntity<List<CustomerRepository.Change>> getChanges( long since, Integer limit ) {
+        if(limit != null && (limit <= 0 || limit > MAX_PAGE_SIZE)) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<CustomerRepository.Change> changes = customerRepository.findChangesSince( since, limit != null ? limit : MAX_PAGE_SIZE );
+        if(changes == null) {
+            return ResponseEntity.status( HttpStatus.GONE ).build();
+        }
+        return ResponseEntity.ok( changes );
+    }
+
+    @Override
+    public ResponseEntity<Flux<ServerSentEvent<String>>> streamChanges( Long since, String lastEventId ) {
+        if(since == null && lastEventId != null) {
+            try {
+                since = Long.valueOf( lastEventId.trim() );
+            } catch(NumberFormatException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
+        AtomicLong cursor = new AtomicLong( since != null ? since : customerRepository.getModificationCount() );
+        // read changes when the modification count moved, coalescing counts while the client is slow
+        Flux<ServerSentEvent<String>> changes = Flux.just( cursor.get() )
+                .concatWith( modifications.onBackpressureLatest() )
+                .concatMap( seq -> changesAfter( cursor ), 1 )
+                .takeUntil( event -> event == RESYNC );
+        Flux<ServerSentEvent<String>> heartbeats = Flux.interval( Duration.ofSeconds( heartbeatSeconds ) )
+                .onBackpressureDrop()
+                .map( tick -> HEARTBEAT );
+        ServerSentEvent<String> preamble = ServerSentEvent.<String>builder().retry( Duration.ofSeconds( 1 ) ).build();
+        return ResponseEntity.ok()
+                .header( "Cache-Control", "no-cache" )
+                .body( Flux.just( preamble ).concatWith( Flux.merge( changes, heartbeats ).takeUntil( event -> event == RESYNC ) ) );
+    }
+
+    @Override
+    public ResponseEntity<Flux<DataBuffer>> getCustomer( long id ) {
+        long version = customerRepository.findVersionById( id );
+        Optional<Customer> customer = customerRepository.findById( id );
+        if(customer.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        // customer may have changed since its version was looked up, the ETag then is older
+        return ResponseEntity.ok().eTag( etag( version ) ).contentType( MediaType.APPLICATION_JSON )
+                .body( encode( Flux.just( customer.get() ), false ) );
+    }
+
+    @Override
+    public Mono<ResponseEntity<List<?>>> postCustomers( Flux<CustomerJsonDTO> dtos ) {
+        return dtos.collectList()
+                .publishOn( Schedulers.boundedElastic() )	// inserts wait for the write-ahead log
+                .map( list -> CustomerBatches.insert( customerRepository, list ) );
+    }
+
+    @Override
+    public Flux<Object> importCustomers( Flux<CustomerJsonDTO> dtos ) {
+        AtomicLong read = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicReference<String> error = new AtomicReference<>();
+        return dtos
+                // customers read before the malformed part are imported
+                .onErrorResume( e -> e instanceof ServerWebInputException || e instanceof DecodingException, e -> {
+                    error.set( originalMessage( e ) );
+                    return Mono.empty();
+                } )
+                .buffer( IMPORT_CHUNK )
+                .publishOn( Schedulers.boundedElastic() )	// inserts wait for the write-ahead log
+                .concatMapIterable( chunk -> importChunk( chunk, read, rejected ) )
+                .concatWith( Flux.defer( () -> error.get() == null
+                        ? Flux.just( progress( read.get(), rejected.get(), true ) )
+                        : Flux.just( progress( read.get(), rejected.get(), false ), Map.of( "error", error.get() ) ) ) );
+    }
+
+    @Override
+    public Mono<ResponseEntity<List<?>>> putCustomers( Flux<CustomerJsonDTO> dtos ) {
+        return dtos.collectList()
+                .publishOn( Schedulers.boundedElastic() )	// updates wait for the write-ahead log
+                .map( list -> CustomerBatches.update( customerRepository, list ) );
+    }
+
+    @Override
+    public Mono<ResponseEntity<?>> deleteCustomer( long id ) {
+        if(id < 0) return Mono.just( new ResponseEntity<>( null, HttpStatus.BAD_REQUEST ) ); // status 400
+        return Mono.<ResponseEntity<?>>fromCallable( () -> {
+            if(!customerRepository.existsById(id)) return new ResponseEntity<>( null, HttpStatus.NOT_FOUND ); // status 404
+            customerRepository.deleteById(id);
+            return new ResponseEntity<>( null, HttpStatus.ACCEPTED ); // status 202
+        } ).subscribeOn( Schedulers.boundedElastic() );	// deletes wait for the write-ahead log
+    }
+
+    /*
+        Private methods
+     */
+
+    // strong ETag of a repository version or modification count, both exceed those of earlier processes
+    private static String etag( long version ) {
+        return "\"" + version + "\"";
+    }
+
+    // stream newline-delimited JSON when the client prefers it, JSON otherwise
+    private static boolean ndjson( List<String> accept ) {
+        if(accept == null) return false;
+        List<MediaType> acceptable;
+        try {
+            acceptable = MediaType.parseMediaTypes( accept );
+        } catch(InvalidMediaTypeException e) {
+            return false;
+        }
+        MediaType.sortBySpecificityAndQuality( acceptable );
+        for(MediaType type: acceptable) {
+            if(type.getQualityValue() == 0) continue;
+            if(MediaType.APPLICATION_NDJSON.equalsTypeAndSubtype( type )) return true;
+            if(type.includes( MediaType.APPLICATION_JSON )) return false;
+        }
+        return false;
+    }
+
+    // encode customers as they are requested, a group of customers per buffer: a JSON array
+    // written as '[', customers separated by commas and ']', or one customer per line
+    private Flux<DataBuffer> encode( Flux<Customer> customers, boolean ndjson ) {
+        return Flux.defer( () -> {
+            boolean[] first = { true };
+            Flux<DataBuffer> groups = customers.buffer( CUSTOMERS_PER_BUFFER ).map( group -> {
+                ByteArrayBuilder bytes = new ByteArrayBuilder( group.size() * 128 );
+                try( JsonGenerator generator = json.createGenerator( bytes, JsonEncoding.UTF8 ) ) {
+                    for(Customer customer: group) {
+                        if(!ndjson && !first[0]) generator.writeRaw( ',' );
+                        first[0] = false;
+                        CustomersJsonWriter.writeCustomer( generator, customer );
+                        if(ndjson) generator.writeRaw( '\n' );
+                    }
+                } catch(IOException e) {
+                    throw new UncheckedIOException( e );
+                }
+                return DefaultDataBufferFactory.sharedInstance.wrap( bytes.toByteArray() );
+            } );
+            return ndjson ? groups : Flux.concat( Flux.just( buffer( "[" ) ), groups, Flux.just( buffer( "]" ) ) );
+        } );
+    }
+
+    private static DataBuffer buffer( String text ) {
+        return DefaultDataBufferFactory.sharedInstance.wrap( text.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    // events of changes after cursor read in batches as requested, ends with RESYNC if cursor left the change log
+    private Flux<ServerSentEvent<String>> changesAfter( AtomicLong cursor ) {
+        return Flux.<List<CustomerRepository.Change>>generate( sink -> {
+            List<CustomerRepository.Change> changes = customerRepository.findChangesSince( cursor.get(), BATCH );
+            if(changes == null) {
+                sink.next( List.of() );
+                sink.error( new IllegalStateException( "resync" ) );
+            } else if(changes.isEmpty()) {
+                sink.complete();
+            } else {
+                cursor.set( changes.get( changes.size() - 1 ).getSeq() );
+                sink.next( changes );
+            }
+        } )
+                .concatMapIterable( changes -> changes )
+                .map( this::event )
+                .onErrorReturn( IllegalStateException.class, RESYNC );
+    }
+
+    private ServerSentEvent<String> event( CustomerRepository.Change change ) {
+        try( ByteArrayBuilder bytes = new ByteArrayBuilder( 256 );
+             JsonGenerator generator = objectMapper.getFactory().createGenerator( bytes, JsonEncoding.UTF8 ) ) {
+            CustomersJsonWriter.writeChange( generator, change );
+            generator.flush();
+            return ServerSentEvent.<String>builder()
+                    .id( String.valueOf( change.getSeq() ) )
+                    .event( change.getType().name().toLowerCase( Locale.ROOT ) )
+                    .data( new String( bytes.toByteArray(), StandardCharsets.UTF_8 ) )
+                    .build();
+        } catch(IOException e) {
+            throw new IllegalStateException( "rendering change failed", e );
+        }
+    }
+
+    // insert chunk, returns rejected objects and progress after a full chunk
+    private List<Object> importChunk( List<CustomerJsonDTO> dtos, AtomicLong read, AtomicLong rejected ) {
+        List<Object> results = new ArrayList<>();
+        List<Customer> chunk = new ArrayList<>( dtos.size() );
+        Map<Customer, CustomerJsonDTO> sources = new IdentityHashMap<>();
+        for(CustomerJsonDTO dto: dtos) {
+            Optional<Customer> customer = CustomerBatches.accept( dto );
+            if(customer.isEmpty()) {
+                results.add( rejected( HttpStatus.BAD_REQUEST, dto ) );
+                continue;
+            }
+            chunk.add( customer.get() );
+            sources.put( customer.get(), dto );
+        }
+        for(Customer customer: customerRepository.saveAllIfAbsent( chunk )) {
+            results.add( rejected( HttpStatus.CONFLICT, sources.get( customer ) ) );
+        }
+        read.addAndGet( dtos.size() );
+        rejected.addAndGet( results.size() );
+        if(dtos.size() == IMPORT_CHUNK) {
+            results.add( progress( read.get(), rejected.get(), false ) );
+        }
+        return results;
+    }
+
+    // message of the JSON parser, as reported by the servlet controller
+    private static String originalMessage( Throwable e ) {
+        for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if(cause instanceof JsonProcessingException) return ((JsonProcessingException) cause).getOriginalMessage();
+        }
+        return e.getMessage();
+    }
+
+    private static Map<String, Object> rejected( HttpStatus status, CustomerJsonDTO dto ) {
+        Map<String, Object> rejected = new LinkedHashMap<>();
+        rejected.put( "status", status.value() );
+        rejected.put( "customer", dto );
+        return rejected;
+    }
+
+    private static Map<String, Object> progress( long read, long rejected, boolean done ) {
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put( "read", read );
+        progress.put( "imported", read - rejected );
+        progress.put( "rejected", rejected );
+        if(done) progress.put( "done", true );
+        return progress;
+    }
+}
@@ -0,0 +1,114 @@
+package de.freerider.restapi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds with log-linear buckets in the
+ * style of HdrHistogram: values below 128 have a bucket each, above, every power of
+ * two is split into 64 buckets of equal width. Values are resolved to within 1.6%
+ * over the whole positive {@code long} range with 3,712 buckets.
+ * <p>
+ * Recording is allocation-free and lock-free: it increments one bucket counter and
+ * updates sum and maximum. Percentiles are computed from a pass over the buckets when
+ * read, reads are weakly consistent with concurrent recording.
+ */
+final class LatencyHistogram {
+    // values below are recorded exactly
+    private static final int LINEAR = 128;
+    // buckets per power of two above LINEAR
+    private static final int SUB_BUCKETS = 64;
+    // powers of two 2^7 to 2^62 split into buckets
+    private static final int BUCKETS = LINEAR + (62 - 7 + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     *
+     * @param nanos latency in nanoseconds, negative values are recorded as 0.
+     */
+    void record(long nanos) {
+        long v = Math.max(nanos, 0);
+        counts.incrementAndGet(index(v));
+        sum.addAndGet(v);
+        long m;
+        while(v > (m = max.get()) && ! max.compareAndSet(m, v)) { }
+    }
+
+    /**
+     * Returns number of recorded values.
+     *
+     * @return number of values.
+     */
+    long count() {
+        long n = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    long sum() {
+        return sum.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns the values at the given percentiles, each the highest value of the bucket
+     * the percentile falls into, in one pass over the buckets.
+     *
+     * @param percentiles ascending percentiles between 0 and 100.
+     * @return values at percentiles, 0 if no values were recorded.
+     */
+    long[] percentiles(double... percentiles) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        long[] values = new long[percentiles.length];
+        if(n == 0) return values;
+        long seen = 0;
+        int p = 0;
+        for(int i = 0; i < BUCKETS && p < percentiles.length; i++) {
+            seen += snapshot[i];
+            while(p < percentiles.length && seen > 0 && seen >= Math.ceil(percentiles[p] / 100.0 * n)) {
+                values[p++] = Math.min(highest(i), max());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param v non-negative value.
+     * @return index of bucket.
+     */
+    static int index(long v) {
+        if(v < LINEAR) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - 6;	// v >>> shift in [64, 128)
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (v >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the highest value recorded in a bucket.
+     *
+     * @param index index of bucket.
+     * @return highest value of bucket.
+     */
+    static long highest(int index) {
+        if(index < LINEAR) return index;
+        int k = index - LINEAR;
+        int shift = k / SUB_BUCKETS + 1;
+        long sub = k % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;	// Long.MAX_VALUE for the last bucket
+    }
+}
@@ -0,0 +1,112 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-operation request metrics: a latency histogram, request and error counts and
+ * payload sizes for each handler method of the REST APIs (e.g. {@code getCustomer},
+ * {@code postCustomers}), recorded by the {@link AccessLogFilter} (the {@link AccessLogWebFilter}
+ * in reactive applications). Served together with repository gauges by GET /server/metrics:
+ * <pre>{@code
+ * {"uptimeMillis":60000,
+ *  "repository":{"customers":3,"modifications":1879405152436231,"byStatus":{"New":3,...}},
+ *  "operations":{"getCustomer":{"requests":12,"errors":1,"requestBytes":0,"responseBytes":996,
+ *      "latencyMicros":{"mean":85.2,"p50":80,"p90":120,"p99":400,"p999":400,"max":401}},...}}
+ * }</pre>
+ * Recording allocates nothing once an operation has been seen: histogram buckets and
+ * counters are preallocated, operations are looked up by the interned method name.
+ */
+@Component
+class Metrics {
+    // percentiles reported for latencies
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    // metrics by operation name
+    private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<String, Operation>();
+
+    /**
+     * Metrics of one operation.
+     */
+    private static final class Operation {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder requestBytes = new LongAdder();
+        final LongAdder responseBytes = new LongAdder();
+    }
+
+    /**
+     * Record a request served by an operation.
+     *
+     * @param operation name of operation, the handler method.
+     * @param status response status, 400 and above counts as error.
+     * @param nanos time the request took in nanoseconds.
+     * @param requestBytes bytes of the request body, negative if unknown.
+     * @param responseBytes bytes of the response body.
+     */
+    void record( String operation, int status, long nanos, long requestBytes, long responseBytes ) {
+        Operation o = operations.get( operation );
+        if(o == null) {
+            o = operations.computeIfAbsent( operation, name -> new Operation() );
+        }
+        o.latency.record( nanos );
+        if(status >= 400) o.errors.increment();
+        if(requestBytes > 0) o.requestBytes.add( requestBytes );
+        o.responseBytes.add( responseBytes );
+    }
+
+    /**
+     * Write metrics of all operations and repository gauges as JSON object.
+     *
+     * @param generator generator JSON is written to.
+     * @throws IOException when writing fails.
+     */
+    void write( JsonGenerator generator ) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField( "uptimeMillis", ManagementFactory.getRuntimeMXBean().getUptime() );
+        generator.writeObjectFieldStart( "repository" );
+        generator.writeNumberField( "customers", customerRepository.count() );
+        generator.writeNumberField( "modifications", customerRepository.getModificationCount() );
+        generator.writeObjectFieldStart( "byStatus" );
+        for(Customer.Status status: Customer.Status.values()) {
+            generator.writeNumberField( status.name(), customerRepository.countByStatus( status ) );
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeObjectFieldStart( "operations" );
+        for(Map.Entry<String, Operation> entry: new TreeMap<String, Operation>( operations ).entrySet()) {
+            Operation o = entry.getValue();
+            long[] percentiles = o.latency.percentiles( PERCENTILES );
+            long requests = o.latency.count();
+            generator.writeObjectFieldStart( entry.getKey() );
+            generator.writeNumberField( "requests", requests );
+            generator.writeNumberField( "errors", o.errors.sum() );
+            generator.writeNumberField( "requestBytes", o.requestBytes.sum() );
+            generator.writeNumberField( "responseBytes", o.responseBytes.sum() );
+            generator.writeObjectFieldStart( "latencyMicros" );
+            generator.writeNumberField( "mean", requests == 0 ? 0.0 : Math.round( o.latency.sum() / 100.0 / requests ) / 10.0 );
+            for(int i = 0; i < PERCENTILES.length; i++) {
+                generator.writeNumberField( PERCENTILE_NAMES[i], percentiles[i] / 1_000 );
+            }
+            generator.writeNumberField( "max", o.latency.max() / 1_000 );
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+}
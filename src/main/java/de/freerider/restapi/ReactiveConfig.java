@@ -0,0 +1,68 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import de.freerider.repository.CustomerRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+import java.io.IOException;
+
+/**
+ * Configuration of the reactive variant of the customers API, active when the application
+ * runs with {@code spring.main.web-application-type=reactive}:
+ * <pre>{@code
+ * - serve requests with Netty instead of Tomcat, which is on the classpath as well
+ * - encode changes with CustomersJsonWriter, in the format of the servlet controllers
+ * }</pre>
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@PropertySource("classpath:swagger.properties")
+class ReactiveConfig implements WebFluxConfigurer {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Select Netty as reactive web server, Spring Boot prefers Tomcat when both are present.
+     *
+     * @return factory of the Netty server.
+     */
+    @Bean
+    NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * Register JSON encoders that write {@link CustomerRepository.Change} objects with
+     * {@link CustomersJsonWriter}, for JSON arrays and newline-delimited JSON. Customers are
+     * encoded by the {@link CustomersReactiveController} itself.
+     *
+     * @param configurer configurer of the server's codecs.
+     */
+    @Override
+    public void configureHttpMessageCodecs( ServerCodecConfigurer configurer ) {
+        SimpleModule module = new SimpleModule( "freerider" );
+        module.addSerializer( CustomerRepository.Change.class, new JsonSerializer<CustomerRepository.Change>() {
+            @Override
+            public void serialize( CustomerRepository.Change change, JsonGenerator generator, SerializerProvider provider ) throws IOException {
+                CustomersJsonWriter.writeChange( generator, change );
+            }
+        } );
+        ObjectMapper mapper = objectMapper.copy().registerModule( module );
+        configurer.defaultCodecs().jackson2JsonEncoder( new Jackson2JsonEncoder( mapper ) );
+        configurer.defaultCodecs().jackson2JsonDecoder( new Jackson2JsonDecoder( mapper ) );
+    }
+}
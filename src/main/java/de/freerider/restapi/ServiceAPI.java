@@ -1,7 +1,10 @@
 package de.freerider.restapi;
 
+import java.io.IOException;
 import java.util.List;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -20,11 +23,11 @@ public interface ServiceAPI {
 	/**
 	 * GET /people
 	 * 
-	 * Return JSON Array of people (compact).
+	 * Return JSON Array of people (compact), or CBOR or Smile as negotiated by Accept.
 	 * 
 	 * @return JSON Array of people
 	 */
-	@RequestMapping( method = RequestMethod.GET, value = "/people", produces = { "application/json" } )
+	@RequestMapping( method = RequestMethod.GET, value = "/people", produces = { "application/json", "application/cbor", "application/x-jackson-smile" } )
 	ResponseEntity<List<?>> getPeople();
 
 
@@ -48,4 +51,18 @@ public interface ServiceAPI {
 	@RequestMapping( method = RequestMethod.GET, value = "/server/stop" )
 	ResponseEntity<Void> stop();
 
+
+	/**
+	 * GET /server/metrics
+	 * 
+	 * Return JSON object with latency histograms (percentiles), request, error and payload
+	 * size counters of each REST API operation and repository gauges, or CBOR or Smile
+	 * as negotiated by Accept.
+	 * 
+	 * @param response HTTP response the JSON object is written to
+	 * @throws IOException when writing the response fails
+	 */
+	@RequestMapping( method = RequestMethod.GET, value = "/server/metrics", produces = { "application/json", "application/cbor", "application/x-jackson-smile" } )
+	void getMetrics( HttpServletResponse response ) throws IOException;
+
 }
@@ -3,17 +3,24 @@ package de.freerider.restapi;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -23,6 +30,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 class ServiceController implements ServiceAPI {
 	//
 	@Autowired
@@ -31,6 +39,12 @@ class ServiceController implements ServiceAPI {
 	private final ObjectMapper objectMapper;
 	//
 	private final HttpServletRequest request;
+	//
+	@Autowired
+	private Metrics metrics;
+	//
+	@Autowired
+	private WireFormats wireFormats;
 
 
 	/**
@@ -56,7 +70,6 @@ class ServiceController implements ServiceAPI {
 	public ResponseEntity<List<?>> getPeople() {
 		//
 		ResponseEntity<List<?>> re = null;
-		System.err.println( request.getMethod() + " " + request.getRequestURI() );   
 		try {
 			ArrayNode arrayNode = peopleAsJSON();
 			ObjectReader reader = objectMapper.readerFor( new TypeReference<List<ObjectNode>>() { } );
@@ -82,7 +95,6 @@ class ServiceController implements ServiceAPI {
 	public ResponseEntity<String> getPeoplePretty() {
 		//
 		ResponseEntity<String> re = null;
-		System.err.println( request.getMethod() + " " + request.getRequestURI() );   
 		try {
 			ArrayNode arrayNode = peopleAsJSON();
 			String pretty = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString( arrayNode );
@@ -106,7 +118,7 @@ class ServiceController implements ServiceAPI {
 	public ResponseEntity<Void> stop() {
 		//
  		try {
-			System.err.print( request.getRequestURI() + " " + request.getMethod() + "\nshutting down server..." );
+			System.err.print( "shutting down server..." );
 			//
 			ApplicationContext context = this.context;
 			((ConfigurableApplicationContext) context).close();
@@ -121,6 +133,28 @@ class ServiceController implements ServiceAPI {
 	}
 
 
+	/**
+	 * GET /server/metrics
+	 * 
+	 * Write metrics recorded for REST API operations and repository gauges in the wire
+	 * format negotiated by Accept.
+	 * 
+	 * @param response HTTP response the JSON object is written to
+	 * @throws IOException when writing the response fails
+	 */
+	@Override
+	public void getMetrics( HttpServletResponse response ) throws IOException {
+		//
+		MediaType format = wireFormats.negotiate( Collections.list( request.getHeaders( HttpHeaders.ACCEPT ) ) );
+		response.setStatus( HttpStatus.OK.value() );
+		response.setContentType( format.toString() );
+		response.setHeader( HttpHeaders.VARY, HttpHeaders.ACCEPT );
+		try( JsonGenerator generator = wireFormats.factory( format ).createGenerator( response.getOutputStream(), JsonEncoding.UTF8 ) ) {
+			metrics.write( generator );
+		}
+	}
+
+
 	/*
 	 * Quick Person class
 	 */
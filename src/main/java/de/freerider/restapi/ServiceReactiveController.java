@@ -0,0 +1,61 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Reactive controller serving the metrics recorded by the {@link AccessLogWebFilter},
+ * active in reactive web applications only:
+ *
+ * - GET /server/metrics, in the format of {@link ServiceAPI#getMetrics}
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+class ServiceReactiveController {
+
+    @Autowired
+    private Metrics metrics;
+
+    @Autowired
+    private WireFormats wireFormats;
+
+    /**
+     * GET /server/metrics
+     *
+     * Return latency histograms, request, error and payload size counters of each REST API
+     * operation and repository gauges as JSON object, or CBOR or Smile as negotiated by Accept.
+     *
+     * @param accept values of the Accept header.
+     * @return metrics in the negotiated wire format.
+     */
+    @RequestMapping(
+            method=RequestMethod.GET,
+            value="/server/metrics",
+            produces={ "application/json", "application/cbor", "application/x-jackson-smile" }
+    )
+    ResponseEntity<byte[]> getMetrics( @RequestHeader(value = "Accept", required = false) List<String> accept ) {
+        MediaType format = wireFormats.negotiate( accept != null ? accept : List.of() );
+        try( ByteArrayBuilder bytes = new ByteArrayBuilder( 4096 ) ) {
+            try( JsonGenerator generator = wireFormats.factory( format ).createGenerator( bytes, JsonEncoding.UTF8 ) ) {
+                metrics.write( generator );
+            }
+            return ResponseEntity.ok().contentType( format ).header( HttpHeaders.VARY, HttpHeaders.ACCEPT ).body( bytes.toByteArray() );
+        } catch(IOException e) {
+            throw new UncheckedIOException( e );
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package de.freerider.restapi;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -19,6 +20,7 @@ import springfox.documentation.service.Contact;
 
 
 @Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @EnableWebMvc
 @PropertySource("classpath:swagger.properties")
 @ConfigurationProperties( prefix="app.api" )//, ignoreInvalidFields=true, ignoreUnknownFields=false )
@@ -0,0 +1,56 @@
+package de.freerider.restapi;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in mode running servlet requests on virtual threads, one per request, instead of
+ * Tomcat's bounded pool of platform threads. Requests blocking on the write-ahead log
+ * or on slow clients then no longer hold scarce threads. Turned on in
+ * application.properties:
+ * <pre>{@code
+ * app.server.virtual-threads   - true to run requests on virtual threads, requires Java 21
+ * }</pre>
+ * The executor is looked up at runtime so the application still builds and runs on
+ * Java 17 with the mode turned off. Virtual threads blocking inside {@code synchronized}
+ * pin their carrier thread, run with {@code -Djdk.tracePinnedThreads=full} to log
+ * where this happens.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.server.virtual-threads", havingValue = "true")
+class VirtualThreadsConfig {
+
+    /**
+     * Replace the thread pool of Tomcat's connectors with a virtual-thread-per-task executor.
+     *
+     * @return customizer setting the executor of protocol handlers.
+     * @throws IllegalStateException when the JVM does not support virtual threads.
+     */
+    @Bean
+    TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadsExecutor() {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        return protocolHandler -> protocolHandler.setExecutor( executor );
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        } catch(NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException( "app.server.virtual-threads requires Java 21, running on " + Runtime.version() + "!", e );
+        } catch(InvocationTargetException e) {	// preview feature not enabled on Java 19 and 20
+            throw new IllegalStateException( "app.server.virtual-threads requires Java 21, running on " + Runtime.version() + "!", e.getCause() );
+        }
+    }
+}
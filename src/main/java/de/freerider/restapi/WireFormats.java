@@ -0,0 +1,92 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Wire formats of the REST APIs, negotiated by the {@code Accept} header of requests:
+ * <pre>{@code
+ * application/json               - text JSON, the default
+ * application/cbor               - CBOR (RFC 8949)
+ * application/x-jackson-smile    - Smile, Jackson's binary JSON
+ * }</pre>
+ * All formats carry the same data model and are written by the same streaming writers
+ * (e.g. {@link CustomersJsonWriter}) through a Jackson {@link JsonFactory} of the format.
+ * Factories are shared and use the application's {@link ObjectMapper} as codec, so
+ * objects written with {@code writeObject} are serialized the same way in all formats.
+ */
+@Component
+class WireFormats {
+    static final MediaType CBOR = MediaType.valueOf( "application/cbor" );
+    static final MediaType SMILE = MediaType.valueOf( "application/x-jackson-smile" );
+    // negotiated formats in order of preference when Accept lists several with the same quality
+    static final List<MediaType> MEDIA_TYPES = List.of( MediaType.APPLICATION_JSON, CBOR, SMILE );
+
+    private final JsonFactory json;
+    private final JsonFactory cbor;
+    private final JsonFactory smile;
+
+    /**
+     * Constructor.
+     *
+     * @param objectMapper mapper providing the JSON factory and the codec of the binary factories.
+     */
+    WireFormats( ObjectMapper objectMapper ) {
+        this.json = objectMapper.getFactory();
+        this.cbor = new CBORFactory().setCodec( objectMapper );
+        this.smile = new SmileFactory().setCodec( objectMapper );
+    }
+
+    /**
+     * Select the wire format of a response from the values of its request's {@code Accept} header.
+     *
+     * @param accept values of the Accept header, may be empty.
+     * @return media type of the format with the highest quality, JSON if no format or no valid header is listed.
+     */
+    MediaType negotiate( List<String> accept ) {
+        List<MediaType> acceptable;
+        try {
+            acceptable = MediaType.parseMediaTypes( accept );
+        } catch(InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_JSON;
+        }
+        MediaType.sortBySpecificityAndQuality( acceptable );
+        for(MediaType type: acceptable) {
+            if(type.getQualityValue() == 0) continue;
+            for(MediaType format: MEDIA_TYPES) {
+                if(type.includes( format )) return format;
+            }
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * Select the wire format of a request body from its {@code Content-Type} header.
+     *
+     * @param contentType value of the Content-Type header, JSON if null.
+     * @return media type of the format, JSON for unknown types.
+     */
+    MediaType contentType( String contentType ) {
+        return contentType != null ? negotiate( Collections.singletonList( contentType ) ) : MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * Return the factory creating generators and parsers of a wire format.
+     *
+     * @param format media type returned by {@link #negotiate(List)}.
+     * @return factory of the format, the JSON factory for media types other than CBOR and Smile.
+     */
+    JsonFactory factory( MediaType format ) {
+        if(CBOR.equalsTypeAndSubtype( format )) return cbor;
+        if(SMILE.equalsTypeAndSubtype( format )) return smile;
+        return json;
+    }
+}
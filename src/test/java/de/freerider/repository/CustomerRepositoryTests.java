@@ -0,0 +1,436 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomerRepositoryTests {
+
+    private static final int THREADS = 32;
+
+    private static final int ROUNDS = 20_000;
+
+    private final CustomerRepository customerRepository = new CustomerRepository();
+
+    @Test
+    void concurrentSavesOfDistinctIdsAreAllVisible() throws Exception {
+        runConcurrently(t -> {
+            for(int i = 0; i < ROUNDS; i++) {
+                long id = (long) t * ROUNDS + i;
+                customerRepository.save(new Customer().setId(id).setName("Eric", "Meyer"));
+            }
+        });
+        assertEquals((long) THREADS * ROUNDS, customerRepository.count());
+        for(long id = 0; id < (long) THREADS * ROUNDS; id++) {
+            assertTrue(customerRepository.existsById(id));
+        }
+    }
+
+    @Test
+    void saveAndDeleteAreImmediatelyVisibleToTheCallingThread() throws Exception {
+        // each thread toggles its own id while all threads share the same stripes
+        runConcurrently(t -> {
+            long id = t;
+            for(int i = 0; i < ROUNDS; i++) {
+                Customer customer = new Customer().setId(id).setName("Anne", "Bayer");
+                customerRepository.save(customer);
+                assertTrue(customerRepository.existsById(id));
+                assertSame(customer, customerRepository.findById(id).orElse(null));
+                customerRepository.deleteById(id);
+                assertFalse(customerRepository.existsById(id));
+                assertTrue(customerRepository.findById(id).isEmpty());
+            }
+        });
+        assertEquals(0, customerRepository.count());
+        assertNull(customerRepository.findAll());
+    }
+
+    @Test
+    void countStaysConsistentUnderContendedSaveAndDelete() throws Exception {
+        // all threads race on a small shared id range
+        final int ids = 256;
+        runConcurrently(t -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for(int i = 0; i < ROUNDS; i++) {
+                long id = random.nextInt(ids);
+                if(random.nextBoolean()) {
+                    customerRepository.save(new Customer().setId(id).setName("Tim", "Schulz-Mueller"));
+                } else {
+                    customerRepository.deleteById(id);
+                }
+            }
+        });
+        long present = 0;
+        for(long id = 0; id < ids; id++) {
+            if(customerRepository.existsById(id)) present++;
+        }
+        assertEquals(present, customerRepository.count());
+        int found = 0;
+        Iterable<Customer> all = customerRepository.findAll();
+        if(all != null) {
+            for(Customer c: all) found++;
+        }
+        assertEquals(present, found);
+    }
+
+    @Test
+    void deleteRemovesOnlyTheStoredInstance() {
+        Customer stored = new Customer().setId(7).setName("Eric", "Meyer");
+        customerRepository.save(stored);
+        customerRepository.delete(new Customer().setId(7).setName("Eric", "Meyer"));
+        assertTrue(customerRepository.existsById(7L));
+        customerRepository.delete(stored);
+        assertFalse(customerRepository.existsById(7L));
+        assertEquals(0, customerRepository.count());
+    }
+
+    @Test
+    void generatedIdsAreUniqueUnderConcurrentSaves() throws Exception {
+        Set<Long> generated = ConcurrentHashMap.newKeySet();
+        runConcurrently(t -> {
+            for(int i = 0; i < ROUNDS; i++) {
+                Customer customer = customerRepository.saveWithGeneratedId(new Customer().setName("Eric", "Meyer"));
+                assertTrue(generated.add(customer.getId()));
+            }
+        });
+        assertEquals((long) THREADS * ROUNDS, customerRepository.count());
+        assertEquals((long) THREADS * ROUNDS, generated.size());
+    }
+
+    @Test
+    void generatedIdsSkipExplicitIdsAndReuseDeletedIds() throws Exception {
+        // explicit ids scattered over the range the sequence will run through
+        final long range = (long) THREADS * ROUNDS / 10;
+        List<Customer> explicit = new ArrayList<>();
+        for(long id = 0; id < range; id += 3) {
+            explicit.add(customerRepository.save(new Customer().setId(id).setName("Anne", "Bayer")));
+        }
+        Set<Long> generated = ConcurrentHashMap.newKeySet();
+        runConcurrently(t -> {
+            for(int i = 0; i < ROUNDS / 10; i++) {
+                Customer customer = customerRepository.saveWithGeneratedId(new Customer().setName("Tim", "Schulz-Mueller"));
+                assertTrue(customer.getId() % 3 != 0 || customer.getId() >= range);
+                assertTrue(generated.add(customer.getId()));
+            }
+        });
+        for(Customer customer: explicit) {
+            assertSame(customer, customerRepository.findById(customer.getId()).orElse(null));
+        }
+        Customer first = customerRepository.saveWithGeneratedId(new Customer().setName("Eric", "Meyer"));
+        customerRepository.deleteById(first.getId());
+        Customer reused = customerRepository.saveWithGeneratedId(new Customer().setName("Eric", "Meyer"));
+        assertEquals(first.getId(), reused.getId());
+        assertThrows(IllegalArgumentException.class, () -> customerRepository.saveWithGeneratedId(reused));
+    }
+
+    @Test
+    void generatedIdsFillGapsOfLoadedIdsThenContinueAfterLargest() {
+        List<Customer> loaded = new ArrayList<>();
+        for(long id: new long[] { 0, 1, 3, 4, 5, 9, 1_000_000 }) {
+            loaded.add(new Customer().setId(id).setName("Anne", "Bayer"));
+        }
+        customerRepository.load(loaded);
+        List<Long> generated = new ArrayList<>();
+        for(int i = 0; i < 7; i++) {
+            generated.add(customerRepository.saveWithGeneratedId(new Customer().setName("Eric", "Meyer")).getId());
+        }
+        assertEquals(List.of(2L, 6L, 7L, 8L, 10L, 11L, 12L), generated);
+        // batches without ids take the same gaps
+        List<Customer> batch = List.of(new Customer().setName("Tim", "Schulz-Mueller"), new Customer().setId(13).setName("Tim", "Meyer"));
+        assertTrue(customerRepository.saveAllIfAbsent(batch).isEmpty());
+        assertEquals(14, batch.get(0).getId());
+        customerRepository.deleteAll();
+        assertEquals(0, customerRepository.saveWithGeneratedId(new Customer().setName("Eric", "Meyer")).getId());
+    }
+
+    @Test
+    void generatedIdsBelowLoadedLargestIdAreReusedAfterDeletion() {
+        // the sequence is exhausted, all ids come from the gap below the largest id
+        customerRepository.load(List.of(new Customer().setId(Long.MAX_VALUE).setName("Anne", "Bayer")));
+        assertEquals(0, customerRepository.saveWithGeneratedId(new Customer().setName("Eric", "Meyer")).getId());
+        assertEquals(1, customerRepository.saveWithGeneratedId(new Customer().setName("Eric", "Meyer")).getId());
+        customerRepository.deleteById(0L);
+        assertEquals(0, customerRepository.saveWithGeneratedId(new Customer().setName("Tim", "Meyer")).getId());
+        assertEquals(2, customerRepository.saveWithGeneratedId(new Customer().setName("Tim", "Meyer")).getId());
+    }
+
+    @Test
+    void pagesFollowIdOrderFromCursor() {
+        for(long id = 100; id > 0; id -= 3) {
+            customerRepository.save(new Customer().setId(id).setName("Eric", "Meyer"));
+        }
+        long after = -1;
+        long previous = -1;
+        int seen = 0;
+        List<Customer> page;
+        do {
+            page = customerRepository.findPage(after, 7);
+            for(Customer c: page) {
+                assertTrue(c.getId() > previous);
+                previous = c.getId();
+                seen++;
+            }
+            if(!page.isEmpty()) after = page.get(page.size() - 1).getId();
+        } while(page.size() == 7);
+        assertEquals(customerRepository.count(), seen);
+        // cursor next to a chunk boundary of the id bitmaps, deleted ids are skipped
+        for(long id = 65_530; id < 65_545; id++) {
+            customerRepository.save(new Customer().setId(id).setName("Eric", "Meyer"));
+        }
+        customerRepository.deleteById(65_536L);
+        assertEquals(List.of(65_534L, 65_535L, 65_537L, 65_538L),
+                customerRepository.findPage(65_533, 4).stream().map(Customer::getId).toList());
+        assertTrue(customerRepository.findPage(65_544, 10).isEmpty());
+        // large pages refill the chunks copied from each stripe
+        for(long id = 200_000; id < 210_000; id += 2) {
+            customerRepository.save(new Customer().setId(id).setName("Eric", "Meyer"));
+        }
+        List<Customer> large = customerRepository.findPage(199_999, 3_000);
+        assertEquals(3_000, large.size());
+        for(int i = 0; i < large.size(); i++) {
+            assertEquals(200_000 + 2L * i, large.get(i).getId());
+        }
+        assertThrows(IllegalArgumentException.class, () -> customerRepository.findPage(-1, 0));
+    }
+
+    @Test
+    void nameIndexFollowsSaveDeleteAndNameChanges() {
+        Customer eric = customerRepository.save(new Customer().setId(1).setName("Eric Meyer"));
+        Customer anne = customerRepository.save(new Customer().setId(2).setName("Meyer, Anne"));
+        customerRepository.save(new Customer().setId(3).setName("Tim", "Schulz-Mueller"));
+        assertEquals(List.of(eric, anne), customerRepository.findByNamePrefix("mey", 10));
+        assertEquals(List.of(eric), customerRepository.findByNamePrefix("ERIC", 10));
+        assertEquals(1, customerRepository.findByNamePrefix("m", 1).size());
+        // changes of stored customers are reflected in the index
+        eric.setName("Eric", "Bayer");
+        assertEquals(List.of(anne), customerRepository.findByNamePrefix("mey", 10));
+        assertEquals(List.of(eric), customerRepository.findByNamePrefix("bay", 10));
+        customerRepository.delete(anne);
+        anne.setName("Anne", "Meyerhof");
+        assertTrue(customerRepository.findByNamePrefix("mey", 10).isEmpty());
+        customerRepository.deleteAll();
+        assertTrue(customerRepository.findByNamePrefix("", 10).isEmpty());
+    }
+
+    @Test
+    void contactIndexFollowsSaveDeleteAndContactChanges() {
+        Customer eric = customerRepository.save(new Customer().setId(1).setName("Eric Meyer")
+                .addContact("eric98@yahoo.com").addContact("(030) 3945-642298"));
+        assertEquals(List.of(eric), customerRepository.findByContact("Eric98@YAHOO.com "));
+        assertEquals(List.of(eric), customerRepository.findByContact("030 3945 642298"));
+        eric.addContact("eric@freerider.de");
+        assertEquals(List.of(eric), customerRepository.findByContact("eric@freerider.de"));
+        eric.deleteContact(0);
+        assertTrue(customerRepository.findByContact("eric98@yahoo.com").isEmpty());
+        Customer anne = customerRepository.save(new Customer().setId(2).setName("Anne Bayer").addContact("eric@freerider.de"));
+        assertEquals(2, customerRepository.findByContact("eric@freerider.de").size());
+        eric.deleteAllContacts();
+        assertEquals(List.of(anne), customerRepository.findByContact("eric@freerider.de"));
+        customerRepository.deleteById(2L);
+        assertTrue(customerRepository.findByContact("eric@freerider.de").isEmpty());
+    }
+
+    @Test
+    void saveAllIfAbsentInsertsEachIdExactlyOnceUnderConcurrentBatches() throws Exception {
+        int ids = 1_000;
+        Set<Customer> inserted = ConcurrentHashMap.newKeySet();
+        runConcurrently(thread -> {
+            List<Customer> batch = new ArrayList<>();
+            for(int id = 0; id < ids; id++) {
+                batch.add(new Customer().setId(id).setName("Customer " + thread));
+            }
+            batch.add(new Customer().setName("Generated " + thread));
+            List<Customer> conflicts = customerRepository.saveAllIfAbsent(batch);
+            batch.removeAll(conflicts);
+            inserted.addAll(batch);
+        });
+        assertEquals(ids + THREADS, inserted.size());
+        assertEquals(ids + THREADS, customerRepository.count());
+        for(Customer customer: inserted) {
+            assertSame(customer, customerRepository.findById(customer.getId()).orElseThrow());
+        }
+        Customer repeated = new Customer().setId(ids + THREADS + 1).setName("Repeated");
+        Customer again = new Customer().setId(ids + THREADS + 1).setName("Repeated");
+        assertEquals(List.of(again), customerRepository.saveAllIfAbsent(List.of(repeated, again)));
+    }
+
+    @Test
+    void updateAllReplacesStoredEntitiesAndReturnsThoseNotFound() {
+        customerRepository.save(new Customer().setId(1).setName("Eric Meyer").addContact("eric98@yahoo.com"));
+        customerRepository.save(new Customer().setId(2).setName("Anne Bayer"));
+        Customer eric = new Customer().setId(1).setName("Eric Schulz").addContact("eric@freerider.de");
+        Customer anne = new Customer().setId(2).setName("Anne Meyer");
+        Customer tim = new Customer().setId(3).setName("Tim Schulz-Mueller");
+        assertEquals(List.of(tim), customerRepository.updateAll(List.of(eric, anne, tim)));
+        assertEquals(2, customerRepository.count());
+        assertFalse(customerRepository.existsById(3L));
+        assertSame(eric, customerRepository.findById(1L).orElseThrow());
+        assertEquals(List.of(anne), customerRepository.findByNamePrefix("meyer", 10));
+        assertTrue(customerRepository.findByContact("eric98@yahoo.com").isEmpty());
+        assertEquals(List.of(eric), customerRepository.findByContact("eric@freerider.de"));
+    }
+
+    @Test
+    void statusBitmapsFollowSaveDeleteAndStatusChanges() {
+        for(long id = 0; id < 10_000; id++) {
+            customerRepository.save(new Customer().setId(id * 7).setName("Eric", "Meyer")
+                    .setStatus(id % 10 == 0 ? Customer.Status.Active : Customer.Status.New));
+        }
+        assertEquals(1_000, customerRepository.countByStatus(Customer.Status.Active));
+        assertEquals(9_000, customerRepository.countByStatus(Customer.Status.New));
+        List<Customer> active = customerRepository.findAllByStatus(Customer.Status.Active);
+        assertEquals(1_000, active.size());
+        assertEquals(0, active.get(0).getId());
+        assertEquals(70, active.get(1).getId());
+        customerRepository.findById(7L).get().setStatus(Customer.Status.Suspended);
+        customerRepository.deleteById(0L);
+        assertEquals(999, customerRepository.countByStatus(Customer.Status.Active));
+        assertEquals(1, customerRepository.countByStatus(Customer.Status.Suspended));
+        assertEquals(1_000, customerRepository.findAllByStatus(Customer.Status.Active, Customer.Status.Suspended).size());
+        List<Customer> selected = customerRepository.findAllByIdAndStatus(List.of(7L, 14L, 70L, 71L), Customer.Status.Active, Customer.Status.Suspended);
+        assertEquals(2, selected.size());
+        assertEquals(7, selected.get(0).getId());
+        assertEquals(70, selected.get(1).getId());
+    }
+
+    @Test
+    void indexEntriesAreRemovedByIndexedValuesAfterUnnotifiedChanges() {
+        Customer eric = customerRepository.save(new Customer().setId(1).setName("Eric", "Meyer")
+                .addContact("eric98@yahoo.com").setStatus(Customer.Status.Active));
+        // changes made while detached are not seen by the indexes
+        eric.setListener(null);
+        eric.setName("Eric", "Bayer");
+        eric.deleteAllContacts();
+        eric.addContact("eric@freerider.de");
+        eric.setStatus(Customer.Status.Suspended);
+        customerRepository.save(eric);
+        assertTrue(customerRepository.findByNamePrefix("mey", 10).isEmpty());
+        assertTrue(customerRepository.findByContact("eric98@yahoo.com").isEmpty());
+        assertEquals(0, customerRepository.countByStatus(Customer.Status.Active));
+        assertEquals(List.of(eric), customerRepository.findByNamePrefix("bay", 10));
+        eric.setListener(null);
+        eric.setName("Eric", "Schulz");
+        eric.setStatus(Customer.Status.New);
+        customerRepository.delete(eric);
+        assertTrue(customerRepository.findByNamePrefix("", 10).isEmpty());
+        assertTrue(customerRepository.findByContact("eric@freerider.de").isEmpty());
+        assertEquals(0, customerRepository.countByStatus(Customer.Status.Suspended));
+        assertEquals(0, customerRepository.countByStatus(Customer.Status.New));
+    }
+
+    @Test
+    void serializedCustomerIsCachedUntilCustomerChanges() {
+        Customer eric = customerRepository.save(new Customer().setId(1).setName("Eric", "Meyer"));
+        int[] serialized = { 0 };
+        Function<Customer, byte[]> serializer = c -> {
+            serialized[0]++;
+            return c.getName().getBytes(StandardCharsets.UTF_8);
+        };
+        assertNull(customerRepository.findSerializedById(2L, serializer));
+        CustomerRepository.Serialized cached = customerRepository.findSerializedById(1L, serializer);
+        assertSame(cached, customerRepository.findSerializedById(1L, serializer));
+        assertEquals(1, serialized[0]);
+        eric.addContact("eric98@yahoo.com");
+        assertNotSame(cached, customerRepository.findSerializedById(1L, serializer));
+        assertEquals(2, serialized[0]);
+        customerRepository.save(new Customer().setId(1).setName("Anne", "Bayer"));
+        assertEquals("Bayer, Anne", new String(customerRepository.findSerializedById(1L, serializer).getBytes(), StandardCharsets.UTF_8));
+        customerRepository.deleteById(1L);
+        assertNull(customerRepository.findSerializedById(1L, serializer));
+    }
+
+    @Test
+    void versionsAndModificationCountFollowChanges() {
+        long initial = customerRepository.getModificationCount();
+        Customer eric = customerRepository.save(new Customer().setId(1).setName("Eric", "Meyer"));
+        customerRepository.save(new Customer().setId(2).setName("Anne", "Bayer"));
+        long version = customerRepository.findVersionById(1L);
+        assertTrue(version > initial);
+        assertNotEquals(version, customerRepository.findVersionById(2L));
+        assertEquals(0, customerRepository.findVersionById(3L));
+        long count = customerRepository.getModificationCount();
+        customerRepository.findById(1L);
+        customerRepository.findSerializedById(1L, c -> new byte[0]);
+        assertEquals(count, customerRepository.getModificationCount());
+        assertEquals(version, customerRepository.findVersionById(1L));
+        eric.setStatus(Customer.Status.Active);
+        assertTrue(customerRepository.findVersionById(1L) > version);
+        assertEquals(customerRepository.findVersionById(1L), customerRepository.findSerializedById(1L, c -> new byte[0]).getVersion());
+        count = customerRepository.getModificationCount();
+        customerRepository.deleteById(2L);
+        assertTrue(customerRepository.getModificationCount() > count);
+        assertEquals(0, customerRepository.findVersionById(2L));
+    }
+
+    @Test
+    void changesFollowSequenceAndSignalConsumersThatFellBehind() {
+        long seq = customerRepository.getModificationCount();
+        Customer eric = customerRepository.save(new Customer().setId(1).setName("Eric", "Meyer"));
+        customerRepository.save(new Customer().setId(2).setName("Anne", "Bayer"));
+        eric.addContact("eric98@yahoo.com");
+        customerRepository.deleteById(2L);
+        List<CustomerRepository.Change> changes = customerRepository.findChangesSince(seq, 100);
+        assertEquals(4, changes.size());
+        assertEquals(CustomerRepository.Change.Type.SAVE, changes.get(0).getType());
+        assertSame(eric, changes.get(0).getCustomer());
+        assertEquals(1, changes.get(2).getId());
+        assertEquals(CustomerRepository.Change.Type.DELETE, changes.get(3).getType());
+        assertEquals(2, changes.get(3).getId());
+        for(int i = 0; i < changes.size(); i++) {
+            assertEquals(seq + 1 + i, changes.get(i).getSeq());
+        }
+        assertEquals(customerRepository.getModificationCount(), changes.get(3).getSeq());
+        assertEquals(2, customerRepository.findChangesSince(seq + 2, 2).size());
+        assertTrue(customerRepository.findChangesSince(customerRepository.getModificationCount(), 100).isEmpty());
+        assertNull(customerRepository.findChangesSince(customerRepository.getModificationCount() + 1, 100));
+        assertNull(customerRepository.findChangesSince(seq - 1, 100));	// before repository was created
+        for(int i = 0; i < 70_000; i++) {
+            eric.setStatus(i % 2 == 0 ? Customer.Status.Active : Customer.Status.New);
+        }
+        assertNull(customerRepository.findChangesSince(seq, 100));
+        assertEquals(100, customerRepository.findChangesSince(customerRepository.getModificationCount() - 1_000, 100).size());
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private interface Task {
+        void run(int thread) throws Exception;
+    }
+
+    private void runConcurrently(Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run(thread);
+                return null;
+            }));
+        }
+        start.countDown();
+        for(Future<?> future: futures) {
+            future.get();	// rethrows assertion errors from worker threads
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
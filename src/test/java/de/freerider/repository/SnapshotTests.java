@@ -0,0 +1,128 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTests {
+
+    @Test
+    void snapshotTakenDuringChangesPlusLogRestoresExactState() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        CustomerRepository customerRepository = new CustomerRepository();
+        WriteAheadLog log = WriteAheadLog.open(dir.resolve("wal"), WriteAheadLog.Durability.ASYNC, 1000, 0, replayInto(customerRepository));
+        customerRepository.attachLog(log);
+        for(int i = 0; i < 5_000; i++) {
+            customerRepository.save(new Customer().setId(i).setName("First" + i, "Last" + i).addContact("c" + i + "@freerider.de"));
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while(!stop.get()) {
+                long id = random.nextLong(6_000);
+                switch(random.nextInt(3)) {
+                    case 0: customerRepository.deleteById(id); break;
+                    case 1: customerRepository.save(new Customer().setId(id).setName("Changed" + id, "Last" + id)); break;
+                    default: customerRepository.findById(id).ifPresent(c -> c.setStatus(Customer.Status.Active));
+                }
+            }
+        });
+        writer.start();
+        List<Path> covered = log.roll();
+        long seq = log.lastSeq();
+        Snapshot.write(dir.resolve("snapshot"), seq, customerRepository.findAll(), 1024);	// many small segments
+        for(Path file: covered) {
+            Files.delete(file);
+        }
+        stop.set(true);
+        writer.join();
+        customerRepository.attachLog(null);
+        log.close();
+
+        CustomerRepository restored = new CustomerRepository();
+        Customer[][] loaded = { new Customer[0] };
+        long restoredSeq = Snapshot.loadInto(dir.resolve("snapshot"), count -> loaded[0] = new Customer[count]);
+        restored.load(loaded[0]);
+        assertEquals(seq, restoredSeq);
+        WriteAheadLog.open(dir.resolve("wal"), WriteAheadLog.Durability.ASYNC, 1000, restoredSeq, replayInto(restored)).close();
+        assertEquals(customerRepository.count(), restored.count());
+        for(Customer customer: customerRepository.findAll()) {
+            Customer copy = restored.findById(customer.getId()).orElseThrow();
+            assertArrayEquals(CustomerCodec.encode(customer), CustomerCodec.encode(copy));
+        }
+        assertEquals(customerRepository.countByStatus(Customer.Status.Active), restored.countByStatus(Customer.Status.Active));
+    }
+
+    @Test
+    void customersWithoutStatusAndLargerThanASegmentAreRestored() throws IOException {
+        Path dir = Files.createTempDirectory("snapshot");
+        List<Customer> customers = new ArrayList<Customer>();
+        for(int i = 0; i < 200; i++) {
+            customers.add(new Customer().setId(i).setName("First" + i, "Last" + i)
+                    .setStatus(i % 3 == 0 ? null : Customer.Status.Active)
+                    .addContact(i == 10 ? "x".repeat(4_000) + "@freerider.de" : "c" + i + "@freerider.de"));
+        }
+        Snapshot.write(dir, 1, customers, 1024);
+        List<List<Customer>> segments = new ArrayList<List<Customer>>();
+        Snapshot.load(dir, segment -> {
+            synchronized(segments) {
+                segments.add(segment);
+            }
+        });
+        List<Customer> loaded = new ArrayList<Customer>();
+        for(List<Customer> segment: segments) {
+            loaded.addAll(segment);
+            // segments following the large customer have the target size again
+            int size = segment.stream().mapToInt(c -> 4 + CustomerCodec.encode(c).length).sum();
+            assertTrue(segment.size() == 1 || size <= 1024, "segment of " + size + " bytes");
+        }
+        loaded.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+        assertEquals(customers.size(), loaded.size());
+        for(int i = 0; i < customers.size(); i++) {
+            assertArrayEquals(CustomerCodec.encode(customers.get(i)), CustomerCodec.encode(loaded.get(i)));
+        }
+        assertNull(loaded.get(0).getStatus());
+    }
+
+    @Test
+    void missingSnapshotLoadsNothing() throws IOException {
+        Path dir = Files.createTempDirectory("snapshot");
+        CustomerRepository customerRepository = new CustomerRepository();
+        assertEquals(0, Snapshot.load(dir.resolve("snapshot"), segment -> fail("no segments expected")));
+        assertEquals(0, Snapshot.loadInto(dir.resolve("snapshot"), count -> fail("no snapshot expected")));
+        assertEquals(0, customerRepository.count());
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private static WriteAheadLog.Replay replayInto(CustomerRepository customerRepository) {
+        return new WriteAheadLog.Replay() {
+            @Override
+            public void save(long seq, Customer customer) {
+                customerRepository.save(customer);
+            }
+
+            @Override
+            public void delete(long seq, long id) {
+                customerRepository.deleteById(id);
+            }
+
+            @Override
+            public void clear(long seq) {
+                customerRepository.deleteAll();
+            }
+        };
+    }
+}
@@ -0,0 +1,141 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTests {
+
+    @Test
+    void replayRestoresRepositoryState() throws IOException {
+        Path dir = Files.createTempDirectory("wal");
+        CustomerRepository customerRepository = new CustomerRepository();
+        WriteAheadLog log = WriteAheadLog.open(dir, WriteAheadLog.Durability.GROUP, 1000, 0, replayInto(customerRepository));
+        customerRepository.attachLog(log);
+        Customer eric = customerRepository.save(new Customer().setId(1).setName("Eric", "Meyer").addContact("eric98@yahoo.com"));
+        customerRepository.save(new Customer().setId(2).setName("Anne", "Bayer"));
+        customerRepository.saveWithGeneratedId(new Customer().setName("Tim", "Schulz-Mueller"));
+        eric.addContact("(030) 3945-642298").setStatus(Customer.Status.Active);
+        customerRepository.deleteById(2L);
+        customerRepository.attachLog(null);
+        log.close();
+
+        CustomerRepository restored = new CustomerRepository();
+        WriteAheadLog.open(dir, WriteAheadLog.Durability.GROUP, 1000, 0, replayInto(restored)).close();
+        assertEquals(2, restored.count());
+        assertFalse(restored.existsById(2L));
+        Customer replayed = restored.findById(1L).orElseThrow();
+        assertEquals("Meyer, Eric", replayed.getName());
+        assertEquals(2, replayed.contactsCount());
+        assertEquals(Customer.Status.Active, replayed.getStatus());
+        assertEquals(List.of(replayed), restored.findByContact("030 3945 642298"));
+    }
+
+    @Test
+    void tornRecordAtEndOfLogIsCutOff() throws IOException {
+        Path dir = Files.createTempDirectory("wal");
+        CustomerRepository customerRepository = new CustomerRepository();
+        WriteAheadLog log = WriteAheadLog.open(dir, WriteAheadLog.Durability.FSYNC, 1000, 0, replayInto(customerRepository));
+        customerRepository.attachLog(log);
+        customerRepository.save(new Customer().setId(1).setName("Eric", "Meyer"));
+        customerRepository.save(new Customer().setId(2).setName("Anne", "Bayer"));
+        customerRepository.attachLog(null);
+        log.close();
+        // simulate crash in the middle of writing the last record
+        Path file = files(dir).get(0);
+        long torn;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            torn = channel.size() - 5;
+            channel.truncate(torn);
+        }
+        CustomerRepository restored = new CustomerRepository();
+        WriteAheadLog.open(dir, WriteAheadLog.Durability.GROUP, 1000, 0, replayInto(restored)).close();
+        assertEquals(1, restored.count());
+        assertTrue(restored.existsById(1L));
+        assertTrue(Files.size(file) < torn);
+    }
+
+    @Test
+    void appendsRacingCloseAreWrittenOrFailed() throws Exception {
+        Path dir = Files.createTempDirectory("wal");
+        WriteAheadLog log = WriteAheadLog.open(dir, WriteAheadLog.Durability.GROUP, 1000, 0, replayInto(new CustomerRepository()));
+        List<WriteAheadLog.Pending> appended = new ArrayList<WriteAheadLog.Pending>();
+        List<Thread> appenders = new ArrayList<Thread>();
+        for(int t = 0; t < 4; t++) {
+            Thread appender = new Thread(() -> {
+                try {
+                    while(true) {
+                        WriteAheadLog.Pending pending = log.append(WriteAheadLog.CLEAR, new byte[0]);
+                        synchronized(appended) {
+                            appended.add(pending);
+                        }
+                    }
+                } catch(IllegalStateException e) {
+                    // log closed
+                }
+            });
+            appenders.add(appender);
+            appender.start();
+        }
+        Thread.sleep(50);
+        log.close();
+        for(Thread appender: appenders) {
+            appender.join();
+        }
+        // every record returned by append completes, none is left waiting forever
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for(WriteAheadLog.Pending pending: appended) {
+                try {
+                    pending.await();
+                } catch(UncheckedIOException e) {
+                    // failed by close()
+                }
+            }
+        });
+        assertFalse(appended.isEmpty());
+    }
+
+
+
+    /*
+        Private methods
+     */
+
+    private static WriteAheadLog.Replay replayInto(CustomerRepository customerRepository) {
+        return new WriteAheadLog.Replay() {
+            @Override
+            public void save(long seq, Customer customer) {
+                customerRepository.save(customer);
+            }
+
+            @Override
+            public void delete(long seq, long id) {
+                customerRepository.deleteById(id);
+            }
+
+            @Override
+            public void clear(long seq) {
+                customerRepository.deleteAll();
+            }
+        };
+    }
+
+    private static List<Path> files(Path dir) throws IOException {
+        try(Stream<Path> s = Files.list(dir)) {
+            return s.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package de.freerider.restapi;
+
+import de.freerider.app.Application;
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * Runs against the embedded server: subscribers are written with non-blocking servlet
+ * I/O (WriteListener), which the mock responses of MockMvc do not support.
+ */
+@SpringBootTest(classes = Application.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "app.api.changes.drop-after-millis=300",
+        "app.api.changes.heartbeat-seconds=1"
+})
+class ChangeStreamTests {
+
+    private static final String STREAM = "/api/v1/customers/changes/stream";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private ChangeStream changeStream;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void awaitNoSubscribers() {
+        // connections closed by earlier tests are noticed when heartbeats fail
+        await(() -> changeStream.subscribers() == 0);
+    }
+
+    @Test
+    void subscriberResumesAfterLastEventId() throws Exception {
+        long seq = customerRepository.getModificationCount();
+        customerRepository.save(new Customer().setId(900_001).setName("Lena", "Wolf"));
+        try(Stream<String> lines = subscribe(STREAM, String.valueOf(seq))) {
+            Iterator<String> events = lines.iterator();
+            List<String> read = readUntil(events, line -> line.startsWith("data: "));
+            assertEquals("retry: 1000", read.get(0));
+            assertTrue(read.contains("id: " + (seq + 1)), read.toString());
+            assertTrue(read.contains("event: save"), read.toString());
+            assertTrue(read.get(read.size() - 1).contains("\"Wolf\""), read.toString());
+        }
+        HttpResponse<Void> invalid = client.send(HttpRequest.newBuilder(uri(STREAM)).header("Last-Event-ID", "x").build(),
+                HttpResponse.BodyHandlers.discarding());
+        assertEquals(400, invalid.statusCode());
+    }
+
+    @Test
+    void subscriberBehindChangeLogIsToldToResync() throws Exception {
+        try(Stream<String> lines = subscribe(STREAM + "?since=1", null)) {
+            Iterator<String> events = lines.iterator();
+            readUntil(events, "event: resync"::equals);
+            assertEquals("data: {}", events.next());
+            // closed after the resync event
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                while(events.hasNext()) assertEquals("", events.next());
+            });
+        }
+    }
+
+    @Test
+    void idleSubscriberReceivesHeartbeats() throws Exception {
+        try(Stream<String> lines = subscribe(STREAM, null)) {
+            Iterator<String> events = lines.iterator();
+            readUntil(events, ":"::equals);
+            readUntil(events, ":"::equals);
+        }
+    }
+
+    @Test
+    void subscriberNotReadingIsDropped() throws IOException {
+        try(Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("localhost", port));
+            socket.getOutputStream().write(("GET " + STREAM + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            await(() -> changeStream.subscribers() == 1);
+            // changes of a few KB each fill the connection's buffers, the socket is never read
+            String contact = "x".repeat(2_000) + "@freerider.de";
+            for(int i = 0; i < 20_000 && changeStream.subscribers() == 1; i++) {
+                customerRepository.save(new Customer().setId(900_100 + i % 100).setName("Jan", "Roth").addContact(contact + i));
+            }
+            await(() -> changeStream.subscribers() == 0);
+        }
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    // subscribe and return the lines of the event stream, closing them closes the connection
+    private Stream<String> subscribe(String path, String lastEventId) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(path)).header("Accept", "text/event-stream");
+        if(lastEventId != null) request.header("Last-Event-ID", lastEventId);
+        HttpResponse<Stream<String>> response = client.send(request.build(), HttpResponse.BodyHandlers.ofLines());
+        assertEquals(200, response.statusCode());
+        return response.body();
+    }
+
+    // read lines up to and including the first line matching
+    private static List<String> readUntil(Iterator<String> lines, Predicate<String> matching) {
+        return assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            List<String> read = new ArrayList<String>();
+            while(lines.hasNext()) {
+                String line = lines.next();
+                read.add(line);
+                if(matching.test(line)) return read;
+            }
+            return fail("stream ended after " + read);
+        });
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while(! condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            try {
+                Thread.sleep(10);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.freerider.app.Application;
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = Application.class)
+@AutoConfigureMockMvc
+class CustomersControllerTests {
+
+    private static final String CUSTOMERS = "/api/v1/customers";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void importKeepsChunksReadBeforeTruncatedBody() throws Exception {
+        customerRepository.save(new Customer().setId(701_000).setName("Anne", "Bayer"));
+        StringBuilder body = new StringBuilder("[{\"id\":\"-5\",\"name\":\"Meyer\",\"first\":\"Eric\"}");
+        for(int i = 0; i < 1_500; i++) {	// one full chunk of 1000, 701_000 conflicts in the second
+            body.append(",{\"id\":\"").append(700_000 + i).append("\",\"name\":\"Roth\",\"first\":\"Jan\",\"contacts\":\"jan")
+                    .append(i).append("@freerider.de\"}");
+        }
+        body.append(",{\"id\":\"702_000\",\"name\":\"Tru");	// truncated mid-array
+
+        MvcResult result = mockMvc.perform(post(CUSTOMERS + "/import").contentType("application/json").content(body.toString()))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals("application/x-ndjson", result.getResponse().getContentType());
+        List<JsonNode> lines = new ArrayList<JsonNode>();
+        for(String line: result.getResponse().getContentAsString().split("\n")) {
+            lines.add(objectMapper.readTree(line));
+        }
+        assertEquals(5, lines.size(), lines.toString());
+        assertEquals(400, lines.get(0).get("status").asInt());
+        assertEquals("-5", lines.get(0).get("customer").get("id").asText());
+        assertProgress(lines.get(1), 1_001, 1_000, 1);
+        assertEquals(409, lines.get(2).get("status").asInt());
+        assertEquals("701000", lines.get(2).get("customer").get("id").asText());
+        assertProgress(lines.get(3), 1_501, 1_499, 2);
+        assertFalse(lines.get(3).has("done"));
+        assertTrue(lines.get(4).get("error").asText().length() > 0, lines.get(4).toString());
+
+        // both chunks read before the malformed part are kept, the conflicting customer is unchanged
+        for(long id = 700_000; id < 701_500; id++) {
+            Customer customer = customerRepository.findById(id).orElseThrow();
+            assertEquals(id == 701_000 ? "Bayer" : "Roth", customer.getLastName());
+        }
+        assertTrue(customerRepository.findById(702_000L).isEmpty());
+    }
+
+    @Test
+    void customerIsNotModifiedForMatchingETagOfItsFormat() throws Exception {
+        customerRepository.save(new Customer().setId(703_000).setName("Lena", "Wolf"));
+        String path = CUSTOMERS + "/703000";
+        assertETags(path);
+        // a change of the customer changes its ETag
+        String etag = mockMvc.perform(get(path)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        customerRepository.findById(703_000L).orElseThrow().setStatus(Customer.Status.Active);
+        mockMvc.perform(get(path).header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isOk());
+    }
+
+    @Test
+    void customersAreNotModifiedForMatchingETagOfTheirFormat() throws Exception {
+        assertETags(CUSTOMERS);
+    }
+
+
+    /*
+        Private methods
+     */
+
+    private static void assertProgress(JsonNode progress, long read, long imported, long rejected) {
+        assertEquals(read, progress.get("read").asLong(), progress.toString());
+        assertEquals(imported, progress.get("imported").asLong(), progress.toString());
+        assertEquals(rejected, progress.get("rejected").asLong(), progress.toString());
+    }
+
+    // ETags are distinct per format, If-None-Match matches strongly, weakly, in lists and "*"
+    private void assertETags(String path) throws Exception {
+        String json = mockMvc.perform(get(path)).andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        String cbor = mockMvc.perform(get(path).accept(WireFormats.CBOR)).andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        String smile = mockMvc.perform(get(path).accept(WireFormats.SMILE)).andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertTrue(json.matches("\"\\d+\""), json);
+        String version = json.substring(1, json.length() - 1);
+        assertEquals("\"" + version + "-cbor\"", cbor);
+        assertEquals("\"" + version + "-x-jackson-smile\"", smile);
+
+        for(String ifNoneMatch: new String[] { json, "W/" + json, "\"1\", " + json, "*" }) {
+            MockHttpServletResponse response = mockMvc.perform(get(path).header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch))
+                    .andExpect(status().isNotModified()).andReturn().getResponse();
+            assertEquals(0, response.getContentAsByteArray().length, ifNoneMatch);
+            assertEquals(json, response.getHeader(HttpHeaders.ETAG));
+        }
+        mockMvc.perform(get(path).accept(WireFormats.CBOR).header(HttpHeaders.IF_NONE_MATCH, "W/" + cbor))
+                .andExpect(status().isNotModified());
+        // the JSON ETag does not match the binary representation and vice versa
+        mockMvc.perform(get(path).accept(WireFormats.CBOR).header(HttpHeaders.IF_NONE_MATCH, json))
+                .andExpect(status().isOk());
+        mockMvc.perform(get(path).header(HttpHeaders.IF_NONE_MATCH, cbor))
+                .andExpect(status().isOk());
+    }
+}
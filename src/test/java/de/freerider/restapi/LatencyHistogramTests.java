@@ -0,0 +1,38 @@
+package de.freerider.restapi;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTests {
+
+    @Test
+    void bucketsCoverAllValuesContiguouslyWithBoundedError() {
+        assertEquals(0, LatencyHistogram.index(0));
+        assertEquals(127, LatencyHistogram.highest(LatencyHistogram.index(127)));
+        int last = LatencyHistogram.index(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highest(last));
+        for(int i = 1; i <= last; i++) {
+            long lowest = LatencyHistogram.highest(i - 1) + 1;
+            assertEquals(i, LatencyHistogram.index(lowest));
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.highest(i)));
+            assertTrue(LatencyHistogram.highest(i) - lowest <= lowest / 64, "bucket " + i + " too wide");
+        }
+    }
+
+    @Test
+    void percentilesAreResolvedWithinBucketWidth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertArrayEquals(new long[] { 0, 0 }, histogram.percentiles(50, 99));
+        for(long micros = 1; micros <= 1_000; micros++) {
+            histogram.record(micros * 1_000);
+        }
+        assertEquals(1_000, histogram.count());
+        assertEquals(500_500_000L, histogram.sum());
+        assertEquals(1_000_000, histogram.max());
+        long[] values = histogram.percentiles(50, 99, 100);
+        assertEquals(500_000.0, values[0], 500_000 / 64.0);
+        assertEquals(990_000.0, values[1], 990_000 / 64.0);
+        assertEquals(1_000_000, values[2]);	// capped by the maximum
+    }
+}
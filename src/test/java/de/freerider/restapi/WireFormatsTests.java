@@ -0,0 +1,56 @@
+package de.freerider.restapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import de.freerider.datamodel.Customer;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WireFormatsTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final WireFormats wireFormats = new WireFormats(objectMapper);
+
+    @Test
+    void negotiatesFormatByQualityAndFallsBackToJson() {
+        assertEquals(MediaType.APPLICATION_JSON, wireFormats.negotiate(List.of()));
+        assertEquals(MediaType.APPLICATION_JSON, wireFormats.negotiate(List.of("*/*")));
+        assertEquals(WireFormats.CBOR, wireFormats.negotiate(List.of("application/cbor")));
+        assertEquals(WireFormats.SMILE, wireFormats.negotiate(List.of("application/cbor;q=0.5, application/x-jackson-smile")));
+        assertEquals(WireFormats.CBOR, wireFormats.negotiate(List.of("text/html", "application/cbor;q=0.9")));
+        assertEquals(MediaType.APPLICATION_JSON, wireFormats.negotiate(List.of("application/cbor;q=0, application/json;q=0.1")));
+        assertEquals(MediaType.APPLICATION_JSON, wireFormats.negotiate(List.of("not a media type")));
+        assertEquals(WireFormats.SMILE, wireFormats.contentType("application/x-jackson-smile"));
+        assertEquals(MediaType.APPLICATION_JSON, wireFormats.contentType(null));
+    }
+
+    @Test
+    void binaryFormatsCarrySameCustomersAsJson() throws IOException {
+        Customer customer = new Customer().setId(1).setName("Eric", "Meyer").addContact("eric98@yahoo.com");
+        assertTrue(wireFormats.factory(WireFormats.CBOR) instanceof CBORFactory);
+        for(MediaType format: WireFormats.MEDIA_TYPES) {
+            byte[] bytes;
+            try(ByteArrayBuilder out = new ByteArrayBuilder();
+                JsonGenerator generator = wireFormats.factory(format).createGenerator(out)) {
+                CustomersJsonWriter.writeCustomers(generator, List.of(customer));
+                generator.flush();
+                bytes = out.toByteArray();
+            }
+            try(JsonParser parser = wireFormats.factory(format).createParser(bytes)) {
+                CustomerJsonDTO[] dtos = objectMapper.readValue(parser, CustomerJsonDTO[].class);
+                assertEquals(1, dtos.length, format.toString());
+                assertEquals("Meyer", dtos[0].getName());
+                assertEquals("Eric", dtos[0].getFirst());
+                assertEquals("eric98@yahoo.com", dtos[0].getContacts());
+            }
+        }
+    }
+}